@@ -0,0 +1,72 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import org.cloudera.sasltestwork.JwtServerCallbackhandler;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerValidatorCallback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch validation of a reconnect storm: {@value #BATCH_SIZE} tokens of which
+ * every {@value #DUPLICATES}th is distinct, validated on a fork-join pool of the
+ * given parallelism. Scores are per token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+@Threads(1)
+public class BatchValidationBenchmark {
+  static final int BATCH_SIZE = 1024;
+  static final int DUPLICATES = 4;
+
+  @Param({"1", "2", "4", "8"})
+  public int parallelism;
+
+  private JwtServerCallbackhandler handler;
+  private ForkJoinPool pool;
+  private List<String> tokenValues;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchmarkTokens tokens = new BenchmarkTokens();
+    handler = tokens.newServerHandler(Collections.emptyMap());
+    pool = new ForkJoinPool(parallelism);
+    List<String> distinct = new ArrayList<>();
+    for (int i = 0; i < BATCH_SIZE / DUPLICATES; i++)
+      distinct.add(tokens.newToken());
+    tokenValues = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++)
+      tokenValues.add(distinct.get(i % distinct.size()));
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public List<OAuthBearerValidatorCallback> validateTokens() {
+    return handler.validateTokens(tokenValues, pool);
+  }
+}
@@ -0,0 +1,36 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks (all of them by default) once single-threaded
+ * and once with one thread per available processor, with the GC profiler
+ * enabled so that the allocation rate is reported next to throughput and
+ * average time.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar org.cloudera.sasltestwork.benchmarks.BenchmarkRunner [regex]}
+ */
+public final class BenchmarkRunner {
+  public static void main(String[] args) throws RunnerException {
+    String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+    int[] threadCounts = {1, Runtime.getRuntime().availableProcessors()};
+    for (int threads : threadCounts) {
+      Options options = new OptionsBuilder()
+          .include(include)
+          .threads(threads)
+          .addProfiler(GCProfiler.class)
+          .build();
+      new Runner(options).run();
+      if (threadCounts[0] == threadCounts[1])
+        break;
+    }
+  }
+
+  private BenchmarkRunner() {
+    // empty
+  }
+}
@@ -0,0 +1,119 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.cloudera.sasltestwork.JwtServerCallbackhandler;
+import org.cloudera.sasltestwork.SaslExtensions;
+import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerClientInitialResponse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.sasl.SaslException;
+
+/**
+ * Locally generated keys and tokens shared by the benchmarks, so that no
+ * external JWKS file or token issuer is needed.
+ */
+public final class BenchmarkTokens {
+  public static final String KEY_ID = "benchmark-key";
+  public static final String PRINCIPAL = "benchmark-user";
+  public static final String ISSUER = "https://knox.example.com/gateway";
+
+  private final RSAKey signingKey;
+  private final JWKSet jwkSet;
+
+  public BenchmarkTokens() throws JOSEException {
+    this.signingKey = new RSAKeyGenerator(2048).keyID(KEY_ID).generate();
+    this.jwkSet = new JWKSet(signingKey.toPublicJWK());
+  }
+
+  /**
+   * Return the public key set matching the signing key
+   */
+  public JWKSet jwkSet() {
+    return jwkSet;
+  }
+
+  /**
+   * Return a public key set holding the signing key after the given number of
+   * other, unrelated RSA keys, as during a key rotation window
+   */
+  public JWKSet jwkSet(int otherKeys) throws JOSEException {
+    List<JWK> keys = new ArrayList<>(otherKeys + 1);
+    for (int i = 0; i < otherKeys; i++)
+      keys.add(new RSAKeyGenerator(2048).keyID("other-key-" + i).generate().toPublicJWK());
+    keys.add(signingKey.toPublicJWK());
+    return new JWKSet(keys);
+  }
+
+  /**
+   * Return a new, unique RS256-signed token for {@link #PRINCIPAL} that is valid for an hour
+   */
+  public String newToken() throws JOSEException {
+    return newToken(System.currentTimeMillis(), ISSUER);
+  }
+
+  /**
+   * Return a new, unique RS256-signed token for {@link #PRINCIPAL} from the given issuer that is valid for an hour
+   */
+  public String newToken(String issuer) throws JOSEException {
+    return newToken(System.currentTimeMillis(), issuer);
+  }
+
+  /**
+   * Return a new, unique RS256-signed token for {@link #PRINCIPAL} that expired an hour ago
+   */
+  public String newExpiredToken() throws JOSEException {
+    return newToken(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2), ISSUER);
+  }
+
+  private String newToken(long issuedAtMs, String issuer) throws JOSEException {
+    JWTClaimsSet claims = new JWTClaimsSet.Builder()
+        .subject(PRINCIPAL)
+        .issuer(issuer)
+        .jwtID(UUID.randomUUID().toString())
+        .issueTime(new Date(issuedAtMs))
+        .expirationTime(new Date(issuedAtMs + TimeUnit.HOURS.toMillis(1)))
+        .claim("scope", Arrays.asList("read", "write"))
+        .build();
+    SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(KEY_ID).build(), claims);
+    jwt.sign(new RSASSASigner(signingKey));
+    return jwt.serialize();
+  }
+
+  /**
+   * Return the encoded client initial response carrying the given token and one extension
+   */
+  public static byte[] clientInitialResponse(String token) throws SaslException {
+    Map<String, String> extensions = new HashMap<>();
+    extensions.put("traceId", "abc123");
+    return new OAuthBearerClientInitialResponse(token, new SaslExtensions(extensions)).toBytes();
+  }
+
+  /**
+   * Return a server callback handler for this key set, configured with the given JAAS options
+   */
+  public JwtServerCallbackhandler newServerHandler(Map<String, String> options) {
+    JwtServerCallbackhandler handler = new JwtServerCallbackhandler(jwkSet);
+    handler.configure("OAUTHBEARER", Collections.singletonList(new AppConfigurationEntry("benchmark",
+        AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options)));
+    return handler;
+  }
+}
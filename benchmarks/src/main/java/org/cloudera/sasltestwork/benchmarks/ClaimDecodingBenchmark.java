@@ -0,0 +1,68 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerSignedJwt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a Base64URL-encoded JWT claims segment into a map with
+ * {@link OAuthBearerSignedJwt#toMap(String)}, and the former decoding through a
+ * new {@code ObjectMapper} and a {@code JsonNode} tree for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClaimDecodingBenchmark {
+  private String claimsSegment;
+
+  @Setup
+  public void setup() throws Exception {
+    claimsSegment = new BenchmarkTokens().newToken().split("\\.")[1];
+  }
+
+  @Benchmark
+  public Map<String, Object> toMap() {
+    return OAuthBearerSignedJwt.toMap(claimsSegment);
+  }
+
+  @Benchmark
+  public Map<String, Object> toMapWithObjectMapper() throws Exception {
+    Map<String, Object> retval = new HashMap<>();
+    JsonNode jsonNode = new ObjectMapper().readTree(Base64.getUrlDecoder().decode(claimsSegment));
+    for (Iterator<Map.Entry<String, JsonNode>> iterator = jsonNode.fields(); iterator.hasNext();) {
+      Map.Entry<String, JsonNode> entry = iterator.next();
+      JsonNode value = entry.getValue();
+      if (value.isArray()) {
+        List<String> retvalList = new ArrayList<>();
+        for (JsonNode arrayElement : value)
+          retvalList.add(arrayElement.asText());
+        retval.put(entry.getKey(), retvalList);
+      } else
+        retval.put(entry.getKey(), value.getNodeType() == JsonNodeType.NUMBER ? value.numberValue() : value.asText());
+    }
+    return Collections.unmodifiableMap(retval);
+  }
+}
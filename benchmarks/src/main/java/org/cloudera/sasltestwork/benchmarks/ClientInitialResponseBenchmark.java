@@ -0,0 +1,88 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import org.cloudera.sasltestwork.JwtClientCallbackhandler;
+import org.cloudera.sasltestwork.SaslExtensions;
+import org.cloudera.sasltestwork.Utils;
+import org.cloudera.sasltestwork.oauthbearer.internals.BasicOAuthBearerToken;
+import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerClientInitialResponse;
+import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerSaslClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the OAUTHBEARER client initial response on the server, and its
+ * encoding on the client: into a new array, into a reused direct buffer, and
+ * the former {@code String.format} based encoding for comparison. The full
+ * client side of a new connection, which reuses the encoding of the previous
+ * connection while the token is unchanged, is measured as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientInitialResponseBenchmark {
+  private byte[] clientInitialResponse;
+  private OAuthBearerClientInitialResponse response;
+  private ByteBuffer reusedBuffer;
+  private JwtClientCallbackhandler clientHandler;
+
+  @Setup
+  public void setup() throws Exception {
+    String token = new BenchmarkTokens().newToken();
+    clientInitialResponse = BenchmarkTokens.clientInitialResponse(token);
+    response = new OAuthBearerClientInitialResponse(clientInitialResponse);
+    reusedBuffer = ByteBuffer.allocateDirect(response.encodedSize());
+    clientHandler = new JwtClientCallbackhandler(new BasicOAuthBearerToken(token, Collections.emptySet(),
+        Long.MAX_VALUE, BenchmarkTokens.PRINCIPAL, null));
+  }
+
+  @Benchmark
+  public byte[] clientEvaluateChallenge() throws Exception {
+    return new OAuthBearerSaslClient(clientHandler).evaluateChallenge(new byte[0]);
+  }
+
+  @Benchmark
+  public OAuthBearerClientInitialResponse parse() throws Exception {
+    return new OAuthBearerClientInitialResponse(clientInitialResponse);
+  }
+
+  @Benchmark
+  public byte[] encodeToBytes() {
+    return response.toBytes();
+  }
+
+  @Benchmark
+  public ByteBuffer encodeIntoReusedBuffer() {
+    reusedBuffer.clear();
+    response.writeTo(reusedBuffer);
+    return reusedBuffer;
+  }
+
+  @Benchmark
+  public byte[] encodeWithStringFormat() {
+    SaslExtensions saslExtensions = response.extensions();
+    String authzid = response.authorizationId().isEmpty() ? "" : "a=" + response.authorizationId();
+    String extensions = Utils.mkString(saslExtensions.map(), "", "", "=", OAuthBearerClientInitialResponse.SEPARATOR);
+    if (extensions.length() > 0)
+      extensions = OAuthBearerClientInitialResponse.SEPARATOR + extensions;
+    String message = String.format("n,%s,%sauth=Bearer %s%s%s%s", authzid, OAuthBearerClientInitialResponse.SEPARATOR,
+        response.tokenValue(), extensions, OAuthBearerClientInitialResponse.SEPARATOR,
+        OAuthBearerClientInitialResponse.SEPARATOR);
+    return message.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,59 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import org.cloudera.sasltestwork.JwtServerCallbackhandler;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerValidatorCallback;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerValidatorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.callback.Callback;
+
+/**
+ * A stale client presenting a correctly signed but expired token, with and
+ * without claim screening before signature verification. Each invocation uses
+ * the same token but the rejected token cache is disabled, so every one is
+ * validated in full. Rejections are logged at WARN, so logging is reduced to
+ * ERROR to measure validation alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=error")
+public class ExpiredTokenBenchmark {
+  @Param({"false", "true"})
+  public boolean preScreenClaims;
+
+  private JwtServerCallbackhandler handler;
+  private String token;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchmarkTokens tokens = new BenchmarkTokens();
+    handler = tokens.newServerHandler(Collections.singletonMap(
+        OAuthBearerValidatorConfig.PRE_SCREEN_CLAIMS_OPTION, String.valueOf(preScreenClaims)));
+    token = tokens.newExpiredToken();
+  }
+
+  @Benchmark
+  public OAuthBearerValidatorCallback handleExpiredToken() throws Exception {
+    OAuthBearerValidatorCallback callback = new OAuthBearerValidatorCallback(token);
+    handler.handle(new Callback[] {callback});
+    if (callback.token() != null)
+      throw new IllegalStateException("Expired token was accepted");
+    return callback;
+  }
+}
@@ -0,0 +1,56 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jwt.JWTParser;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerJwtPeek;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the routing-relevant parts of a token, {@code kid} and {@code iss},
+ * with {@link OAuthBearerJwtPeek}, and with a full Nimbus parse for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtPeekBenchmark {
+  private String token;
+
+  @Setup
+  public void setup() throws Exception {
+    token = new BenchmarkTokens().newToken();
+  }
+
+  @Benchmark
+  public String peekKeyId() throws Exception {
+    return OAuthBearerJwtPeek.peek(token).keyId();
+  }
+
+  @Benchmark
+  public String peekIssuer() throws Exception {
+    return OAuthBearerJwtPeek.peek(token).issuer();
+  }
+
+  @Benchmark
+  public String parseKeyId() throws Exception {
+    return ((JWSHeader) JWTParser.parse(token).getHeader()).getKeyID();
+  }
+
+  @Benchmark
+  public String parseIssuer() throws Exception {
+    return JWTParser.parse(token).getJWTClaimsSet().getIssuer();
+  }
+}
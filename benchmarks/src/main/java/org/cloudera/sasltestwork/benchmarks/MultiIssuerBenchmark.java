@@ -0,0 +1,75 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import org.cloudera.sasltestwork.JwtServerCallbackhandler;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerValidatorCallback;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerIssuer;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerSignedJwtVerifier;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerValidatorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.login.AppConfigurationEntry;
+
+/**
+ * Validation of a cached token by a handler trusting the given number of
+ * issuers, the token being from the last one; 0 is a handler built for a
+ * single key set, which does not route at all. The routing cost should not
+ * grow with the number of issuers. Successful validations are logged at INFO,
+ * so logging is reduced to ERROR to measure validation alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=error")
+public class MultiIssuerBenchmark {
+  @Param({"0", "1", "64"})
+  public int issuers;
+
+  private JwtServerCallbackhandler handler;
+  private String token;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchmarkTokens tokens = new BenchmarkTokens();
+    if (issuers == 0) {
+      handler = new JwtServerCallbackhandler(tokens.jwkSet());
+      token = tokens.newToken();
+    } else {
+      OAuthBearerSignedJwtVerifier verifier = new OAuthBearerSignedJwtVerifier(tokens.jwkSet());
+      List<OAuthBearerIssuer> trusted = new ArrayList<>(issuers);
+      for (int i = 0; i < issuers; i++)
+        trusted.add(new OAuthBearerIssuer(BenchmarkTokens.ISSUER + i, () -> verifier));
+      handler = new JwtServerCallbackhandler(trusted);
+      token = tokens.newToken(BenchmarkTokens.ISSUER + (issuers - 1));
+    }
+    handler.configure("OAUTHBEARER", Collections.singletonList(new AppConfigurationEntry("benchmark",
+        AppConfigurationEntry.LoginModuleControlFlag.REQUIRED,
+        Collections.singletonMap(OAuthBearerValidatorConfig.TOKEN_CACHE_MAX_SIZE_OPTION, "1000"))));
+  }
+
+  @Benchmark
+  public OAuthBearerValidatorCallback handleCachedToken() throws Exception {
+    OAuthBearerValidatorCallback callback = new OAuthBearerValidatorCallback(token);
+    handler.handle(new Callback[] {callback});
+    if (callback.token() == null)
+      throw new IllegalStateException("Token was rejected: " + callback.errorStatus());
+    return callback;
+  }
+}
@@ -0,0 +1,81 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import org.cloudera.sasltestwork.JwtServerCallbackhandler;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerValidatorCallback;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerValidatorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.callback.Callback;
+
+/**
+ * A client replaying the same badly signed token, and one replaying a validly
+ * signed token that lacks the required scope, with and without the rejected
+ * token cache. The latter's signature check is answered by the token cache, so
+ * it measures the cost of a failing claim check alone. Rejections are logged
+ * at WARN, so logging is reduced to ERROR to measure validation alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=error")
+public class RejectedTokenBenchmark {
+  @Param({"0", "1024"})
+  public int rejectedTokenCacheMaxSize;
+
+  private JwtServerCallbackhandler handler;
+  private JwtServerCallbackhandler scopedHandler;
+  private String token;
+  private String validToken;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchmarkTokens tokens = new BenchmarkTokens();
+    handler = tokens.newServerHandler(Collections.singletonMap(
+        OAuthBearerValidatorConfig.REJECTED_TOKEN_CACHE_MAX_SIZE_OPTION, String.valueOf(rejectedTokenCacheMaxSize)));
+    Map<String, String> scopedOptions = new HashMap<>();
+    scopedOptions.put(OAuthBearerValidatorConfig.REJECTED_TOKEN_CACHE_MAX_SIZE_OPTION,
+        String.valueOf(rejectedTokenCacheMaxSize));
+    scopedOptions.put(OAuthBearerValidatorConfig.TOKEN_CACHE_MAX_SIZE_OPTION, "1024");
+    scopedOptions.put(OAuthBearerValidatorConfig.REQUIRED_SCOPE_OPTION, "admin");
+    scopedHandler = tokens.newServerHandler(scopedOptions);
+    validToken = tokens.newToken();
+    // corrupt the signature but keep it well-formed Base64URL
+    int last = validToken.length() - 2;
+    token = validToken.substring(0, last) + (validToken.charAt(last) == 'A' ? 'B' : 'A') + validToken.charAt(last + 1);
+  }
+
+  @Benchmark
+  public OAuthBearerValidatorCallback handleRejectedToken() throws Exception {
+    OAuthBearerValidatorCallback callback = new OAuthBearerValidatorCallback(token);
+    handler.handle(new Callback[] {callback});
+    if (callback.token() != null)
+      throw new IllegalStateException("Corrupted token was accepted");
+    return callback;
+  }
+
+  @Benchmark
+  public OAuthBearerValidatorCallback handleOutOfScopeToken() throws Exception {
+    OAuthBearerValidatorCallback callback = new OAuthBearerValidatorCallback(validToken);
+    scopedHandler.handle(new Callback[] {callback});
+    if (callback.token() != null)
+      throw new IllegalStateException("Out-of-scope token was accepted");
+    return callback;
+  }
+}
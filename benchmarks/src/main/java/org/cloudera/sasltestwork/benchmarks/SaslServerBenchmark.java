@@ -0,0 +1,63 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import org.cloudera.sasltestwork.JwtServerCallbackhandler;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerValidatorCallback;
+import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerSaslServer;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerValidatorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.callback.Callback;
+
+/**
+ * Server side of the OAUTHBEARER handshake: the full
+ * {@link OAuthBearerSaslServer#evaluateResponse(byte[])} path and the callback
+ * handler alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class SaslServerBenchmark {
+  @Param({"0", "1024"})
+  public int tokenCacheMaxSize;
+
+  private JwtServerCallbackhandler handler;
+  private String token;
+  private byte[] clientInitialResponse;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchmarkTokens tokens = new BenchmarkTokens();
+    handler = tokens.newServerHandler(Collections.singletonMap(
+        OAuthBearerValidatorConfig.TOKEN_CACHE_MAX_SIZE_OPTION, String.valueOf(tokenCacheMaxSize)));
+    token = tokens.newToken();
+    clientInitialResponse = BenchmarkTokens.clientInitialResponse(token);
+  }
+
+  @Benchmark
+  public byte[] evaluateResponse() throws Exception {
+    return new OAuthBearerSaslServer(handler).evaluateResponse(clientInitialResponse);
+  }
+
+  @Benchmark
+  public OAuthBearerValidatorCallback handleValidatorCallback() throws Exception {
+    OAuthBearerValidatorCallback callback = new OAuthBearerValidatorCallback(token);
+    handler.handle(new Callback[] {callback});
+    return callback;
+  }
+}
@@ -0,0 +1,96 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.Ed25519Signer;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.OctetKeyPairGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerSignedJwtVerifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verification of a token signed with each supported signature algorithm, so
+ * that the cost of moving the token issuer to a different key type can be
+ * estimated. Each token carries the same claims and is verified by the shared
+ * {@link OAuthBearerSignedJwtVerifier}, i.e. parsed, its key looked up and its
+ * signature and standard claims verified.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class SignatureAlgorithmBenchmark {
+  @Param({"RS256", "PS256", "ES256", "ES384", "EdDSA"})
+  public String algorithm;
+
+  private OAuthBearerSignedJwtVerifier verifier;
+  private String token;
+
+  @Setup
+  public void setup() throws Exception {
+    JWSAlgorithm alg = JWSAlgorithm.parse(algorithm);
+    JWK key;
+    JWSSigner signer;
+    if (JWSAlgorithm.Family.RSA.contains(alg)) {
+      RSAKey rsaKey = new RSAKeyGenerator(2048).keyID(BenchmarkTokens.KEY_ID).generate();
+      key = rsaKey;
+      signer = new RSASSASigner(rsaKey);
+    } else if (JWSAlgorithm.Family.EC.contains(alg)) {
+      ECKey ecKey = new ECKeyGenerator(Curve.forJWSAlgorithm(alg).iterator().next())
+          .keyID(BenchmarkTokens.KEY_ID).generate();
+      key = ecKey;
+      signer = new ECDSASigner(ecKey);
+    } else if (JWSAlgorithm.EdDSA.equals(alg)) {
+      OctetKeyPair okp = new OctetKeyPairGenerator(Curve.Ed25519).keyID(BenchmarkTokens.KEY_ID).generate();
+      key = okp;
+      signer = new Ed25519Signer(okp);
+    } else {
+      throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+    }
+    verifier = new OAuthBearerSignedJwtVerifier(new JWKSet(key.toPublicJWK()));
+    long now = System.currentTimeMillis();
+    JWTClaimsSet claims = new JWTClaimsSet.Builder()
+        .subject(BenchmarkTokens.PRINCIPAL)
+        .issuer(BenchmarkTokens.ISSUER)
+        .issueTime(new Date(now))
+        .expirationTime(new Date(now + TimeUnit.HOURS.toMillis(1)))
+        .claim("scope", Arrays.asList("read", "write"))
+        .build();
+    SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(alg).keyID(BenchmarkTokens.KEY_ID).build(), claims);
+    jwt.sign(signer);
+    token = jwt.serialize();
+  }
+
+  @Benchmark
+  public JWTClaimsSet verify() throws Exception {
+    return verifier.verify(token);
+  }
+}
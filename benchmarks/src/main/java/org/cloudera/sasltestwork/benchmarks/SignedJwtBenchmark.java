@@ -0,0 +1,76 @@
+package org.cloudera.sasltestwork.benchmarks;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.JWTParser;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerSignedJwt;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerSignedJwtVerifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of {@link OAuthBearerSignedJwt}, i.e. parsing and signature
+ * verification, and the verification step alone: once through the shared
+ * {@link OAuthBearerSignedJwtVerifier} and once the way it used to be done,
+ * parsing the token twice and building a new processor, key selector and JWK
+ * source for every token. The signing key is the last of {@code keySetSize}
+ * keys, so the cost of finding it shows up as the key set grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class SignedJwtBenchmark {
+  @Param({"1", "16", "64"})
+  private int keySetSize;
+
+  private JWKSet jwkSet;
+  private OAuthBearerSignedJwtVerifier verifier;
+  private String token;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchmarkTokens tokens = new BenchmarkTokens();
+    jwkSet = tokens.jwkSet(keySetSize - 1);
+    verifier = new OAuthBearerSignedJwtVerifier(jwkSet);
+    token = tokens.newToken();
+  }
+
+  @Benchmark
+  public OAuthBearerSignedJwt sharedVerifier() {
+    return new OAuthBearerSignedJwt(token, "sub", "scope", verifier);
+  }
+
+  @Benchmark
+  public JWTClaimsSet verifySharedVerifier() throws Exception {
+    return verifier.verify(token);
+  }
+
+  @Benchmark
+  public JWTClaimsSet verifyProcessorPerToken() throws Exception {
+    JWT jwt = JWTParser.parse(token);
+    DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+    jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(
+        (JWSAlgorithm) jwt.getHeader().getAlgorithm(), new ImmutableJWKSet<>(jwkSet)));
+    return jwtProcessor.process(token, null);
+  }
+}
@@ -1,24 +1,42 @@
 package org.cloudera.sasltestwork;
 
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerClientCallbackHandler;
 import org.cloudera.sasltestwork.oauthbearer.OAuthBearerToken;
 import org.cloudera.sasltestwork.oauthbearer.OAuthBearerTokenCallback;
 import org.cloudera.sasltestwork.oauthbearer.SaslExtensionsCallback;
+import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerInitialResponseCache;
+import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerTokenManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.security.AccessController;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 import javax.security.auth.Subject;
 import javax.security.auth.callback.Callback;
-import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.UnsupportedCallbackException;
 
-public class JwtClientCallbackhandler implements CallbackHandler {
+public class JwtClientCallbackhandler implements OAuthBearerClientCallbackHandler {
   private static final Logger LOG = LoggerFactory.getLogger(JwtClientCallbackhandler.class);
-  private final OAuthBearerToken jwt;
+  private final Supplier<OAuthBearerToken> jwt;
+  private final OAuthBearerInitialResponseCache initialResponseCache = new OAuthBearerInitialResponseCache();
 
   public JwtClientCallbackhandler(OAuthBearerToken jwt) {
-    this.jwt = jwt;
+    Objects.requireNonNull(jwt);
+    this.jwt = () -> jwt;
+  }
+
+  /**
+   * Hands out the current token of the given manager, which refreshes it in the background
+   */
+  public JwtClientCallbackhandler(OAuthBearerTokenManager tokenManager) {
+    this.jwt = Objects.requireNonNull(tokenManager)::token;
+  }
+
+  @Override
+  public OAuthBearerInitialResponseCache initialResponseCache() {
+    return initialResponseCache;
   }
 
   @Override
@@ -36,7 +54,7 @@ public class JwtClientCallbackhandler implements CallbackHandler {
   private void handleCallback(OAuthBearerTokenCallback callback) {
     if (callback.token() != null)
       throw new IllegalArgumentException("Callback had a token already");
-    callback.token(jwt);
+    callback.token(jwt.get());
   }
 
   /**
@@ -1,43 +1,74 @@
 package org.cloudera.sasltestwork;
 
 import com.nimbusds.jose.jwk.JWKSet;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerAsyncValidatorCallbackHandler;
 import org.cloudera.sasltestwork.oauthbearer.OAuthBearerExtensionsValidatorCallback;
 import org.cloudera.sasltestwork.oauthbearer.OAuthBearerValidationUtils;
 import org.cloudera.sasltestwork.oauthbearer.OAuthBearerValidatorCallback;
+import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerMetrics;
 import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerSaslServer;
+import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerStageMetrics;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerClaimValidationEvent;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerJfr;
 import org.cloudera.sasltestwork.oauthbearer.internals.knox.CertificateUtil;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerClaimScreener;
 import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerConfigException;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerFailureCode;
 import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerIllegalTokenException;
-import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerScopeUtils;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerIssuer;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerJwtPeek;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerKeySource;
 import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerSignedJwt;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerSignedJwtVerifier;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerTokenCache;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerTokenCache.TokenDigest;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerUnknownKeyException;
 import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerValidationResult;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerValidatorConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.security.cert.CertificateException;
-import java.security.interfaces.RSAPublicKey;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.security.auth.callback.Callback;
-import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.security.auth.login.AppConfigurationEntry;
 
-public class JwtServerCallbackhandler implements CallbackHandler {
+public class JwtServerCallbackhandler implements OAuthBearerAsyncValidatorCallbackHandler, Closeable {
   private static final Logger LOG = LoggerFactory.getLogger(JwtServerCallbackhandler.class);
 
-  private static final String OPTION_PREFIX = "signedJwtValidator";
-  private static final String PRINCIPAL_CLAIM_NAME_OPTION = OPTION_PREFIX + "PrincipalClaimName";
-  private static final String SCOPE_CLAIM_NAME_OPTION = OPTION_PREFIX + "ScopeClaimName";
-  private static final String REQUIRED_SCOPE_OPTION = OPTION_PREFIX + "RequiredScope";
-  private static final String ALLOWABLE_CLOCK_SKEW_MILLIS_OPTION = OPTION_PREFIX + "AllowableClockSkewMs";
-  private static final String PUBLIC_KEY_PEM = OPTION_PREFIX + "PublicKeyPem";
-  private final JWKSet jwkSet;
-  private Map<String, String> moduleOptions = null;
+  private static final String INSUFFICIENT_SCOPE = "insufficient_scope";
+  private static final String PUBLIC_KEY_PEM = OAuthBearerValidatorConfig.OPTION_PREFIX + "PublicKeyPem";
+  private static final String PUBLIC_KEY_ID = OAuthBearerValidatorConfig.OPTION_PREFIX + "PublicKeyId";
+  private static final OAuthBearerValidationResult NO_ISSUER =
+      OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.MISSING_CLAIM, "No issuer in JWT");
+  private final OAuthBearerKeySource keySource;
+  private final List<OAuthBearerIssuer> issuers;
+  private IssuerContext defaultContext = null;
+  private Map<String, IssuerContext> contextsByIssuer = Collections.emptyMap();
+  private volatile ThreadPoolExecutor asyncExecutor = null;
+  private final LongAdder asyncRejections = new LongAdder();
   private boolean configured = false;
 
   /**
@@ -49,8 +80,61 @@ public class JwtServerCallbackhandler implements CallbackHandler {
     return configured;
   }
 
+  /**
+   * Constructor for a single signing key given by the
+   * {@code signedJwtValidatorPublicKeyPem} option: the PEM encoding, without
+   * header and footer, of an X.509 certificate holding an RSA, EC or Ed25519
+   * public key. The optional {@code signedJwtValidatorPublicKeyId} option is
+   * the key's ID; without it, only tokens without a {@code kid} header are
+   * accepted.
+   */
+  public JwtServerCallbackhandler() {
+    this.keySource = null;
+    this.issuers = Collections.emptyList();
+  }
+
   public JwtServerCallbackhandler(JWKSet jwkSet) {
-    this.jwkSet = jwkSet;
+    OAuthBearerSignedJwtVerifier verifier = new OAuthBearerSignedJwtVerifier(jwkSet);
+    this.keySource = () -> verifier;
+    this.issuers = Collections.emptyList();
+  }
+
+  /**
+   * Constructor for key sets that may change over time, e.g. an
+   * {@code OAuthBearerJwksFileWatcher}. The key source is consulted once per
+   * validation, so a rotated key set takes effect for the next token.
+   *
+   * @param keySource
+   *            the mandatory source of the current key set
+   */
+  public JwtServerCallbackhandler(OAuthBearerKeySource keySource) {
+    this.keySource = Objects.requireNonNull(keySource);
+    this.issuers = Collections.emptyList();
+  }
+
+  /**
+   * Constructor for several trusted issuers, e.g. a number of Knox gateways, or
+   * an old and a new identity provider during a migration. Each token is routed
+   * by its {@code iss} claim, with a single hash lookup, to the key source,
+   * options and caches of its issuer, so trusting more issuers does not slow
+   * down the validation of any one issuer's tokens. Tokens from any other
+   * issuer are rejected. The asynchronous validation executor is shared by all
+   * issuers and sized by the JAAS options alone.
+   *
+   * @param issuers
+   *            the mandatory, non-empty trusted issuers, with distinct
+   *            {@code iss} claim values
+   */
+  public JwtServerCallbackhandler(Collection<OAuthBearerIssuer> issuers) {
+    if (Objects.requireNonNull(issuers).isEmpty())
+      throw new IllegalArgumentException("Must supply at least 1 issuer");
+    Set<String> names = new HashSet<>();
+    for (OAuthBearerIssuer issuer : issuers) {
+      if (!names.add(issuer.issuer()))
+        throw new IllegalArgumentException(String.format("Duplicate issuer: %s", issuer.issuer()));
+    }
+    this.keySource = null;
+    this.issuers = Collections.unmodifiableList(new ArrayList<>(issuers));
   }
 
   @SuppressWarnings("unchecked")
@@ -63,24 +147,87 @@ public class JwtServerCallbackhandler implements CallbackHandler {
               jaasConfigEntries.size()));
     final Map<String, String> unmodifiableModuleOptions = Collections
         .unmodifiableMap((Map<String, String>) jaasConfigEntries.get(0).getOptions());
-    this.moduleOptions = unmodifiableModuleOptions;
+    final OAuthBearerValidatorConfig config = OAuthBearerValidatorConfig.fromOptions(unmodifiableModuleOptions);
+    if (issuers.isEmpty()) {
+      this.defaultContext = new IssuerContext(null,
+          keySource != null ? keySource : pemKeySource(unmodifiableModuleOptions), config);
+    } else {
+      Map<String, IssuerContext> contextsByIssuer = new HashMap<>();
+      for (OAuthBearerIssuer issuer : issuers)
+        contextsByIssuer.put(issuer.issuer(), new IssuerContext(issuer.issuer(), issuer.keySource(),
+            OAuthBearerValidatorConfig.fromOptions(issuer.options(unmodifiableModuleOptions))));
+      this.contextsByIssuer = Collections.unmodifiableMap(contextsByIssuer);
+    }
+    ThreadPoolExecutor previousExecutor = asyncExecutor;
+    asyncExecutor = newAsyncExecutor(config);
+    if (previousExecutor != null)
+      previousExecutor.shutdown();
     configured = true;
   }
 
+  /**
+   * Return the (potentially null) cache of successfully verified tokens; it is
+   * null unless the {@code signedJwtValidatorTokenCacheMaxSize} option is set to
+   * a positive value, or if this instance was constructed for several issuers
+   *
+   * @return the (potentially null) cache of successfully verified tokens
+   * @see #tokenCache(String)
+   */
+  public OAuthBearerTokenCache<OAuthBearerSignedJwt> tokenCache() {
+    return defaultContext != null ? defaultContext.tokenCache : null;
+  }
+
+  /**
+   * Return the (potentially null) cache of successfully verified tokens from
+   * the given issuer; it is null if the issuer is not one this instance was
+   * constructed for, or unless the {@code signedJwtValidatorTokenCacheMaxSize}
+   * option applying to the issuer is set to a positive value
+   *
+   * @param issuer
+   *            the mandatory {@code iss} claim value
+   * @return the (potentially null) cache of the issuer's verified tokens
+   */
+  public OAuthBearerTokenCache<OAuthBearerSignedJwt> tokenCache(String issuer) {
+    IssuerContext context = contextsByIssuer.get(Objects.requireNonNull(issuer));
+    return context != null ? context.tokenCache : null;
+  }
+
+  /**
+   * Return the (potentially null) cache of recently rejected tokens, whose hit
+   * count is the number of validations answered without re-verifying the
+   * token; it is null unless the
+   * {@code signedJwtValidatorRejectedTokenCacheMaxSize} option is set to a
+   * positive value, or if this instance was constructed for several issuers
+   *
+   * @return the (potentially null) cache of recently rejected tokens
+   * @see #rejectedTokenCache(String)
+   */
+  public OAuthBearerTokenCache<OAuthBearerValidationResult> rejectedTokenCache() {
+    return defaultContext != null ? defaultContext.rejectedTokenCache : null;
+  }
+
+  /**
+   * Return the (potentially null) cache of recently rejected tokens naming the
+   * given issuer; it is null if the issuer is not one this instance was
+   * constructed for, or unless the
+   * {@code signedJwtValidatorRejectedTokenCacheMaxSize} option applying to the
+   * issuer is set to a positive value. Tokens naming an untrusted issuer are
+   * rejected without being cached.
+   *
+   * @param issuer
+   *            the mandatory {@code iss} claim value
+   * @return the (potentially null) cache of the issuer's rejected tokens
+   */
+  public OAuthBearerTokenCache<OAuthBearerValidationResult> rejectedTokenCache(String issuer) {
+    IssuerContext context = contextsByIssuer.get(Objects.requireNonNull(issuer));
+    return context != null ? context.rejectedTokenCache : null;
+  }
+
   @Override
   public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
     for (Callback callback : callbacks) {
       if (callback instanceof OAuthBearerValidatorCallback) {
-        OAuthBearerValidatorCallback validationCallback = (OAuthBearerValidatorCallback) callback;
-        try {
-          handleCallback(validationCallback);
-        } catch (OAuthBearerIllegalTokenException e) {
-          LOG.error("Invalid token", e);
-          OAuthBearerValidationResult failureReason = e.reason();
-          String failureScope = failureReason.failureScope();
-          validationCallback.error(failureScope != null ? "insufficient_scope" : "invalid_token",
-              failureScope, failureReason.failureOpenIdConfig());
-        }
+        validate((OAuthBearerValidatorCallback) callback);
       } else if (callback instanceof OAuthBearerExtensionsValidatorCallback) {
         OAuthBearerExtensionsValidatorCallback extensionsCallback = (OAuthBearerExtensionsValidatorCallback) callback;
         extensionsCallback.inputExtensions().map().forEach((extensionName, v) -> extensionsCallback.valid(extensionName));
@@ -89,77 +236,423 @@ public class JwtServerCallbackhandler implements CallbackHandler {
     }
   }
 
-  private void handleCallback(OAuthBearerValidatorCallback callback) {
-    String tokenValue = callback.tokenValue();
+  /**
+   * Validate the tokens of the given callbacks in parallel on the common
+   * fork-join pool
+   *
+   * @param callbacks
+   *            the mandatory callbacks to validate
+   * @see #validateAll(Collection, ForkJoinPool)
+   */
+  public void validateAll(Collection<OAuthBearerValidatorCallback> callbacks) {
+    validateAll(callbacks, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Validate the tokens of the given callbacks in parallel on the given pool.
+   * Identical token values are validated only once; every callback sharing the
+   * value is given the same token or error. When this method returns, every
+   * callback has either been given a token or an error, exactly as if it had
+   * been passed to {@link #handle}; a callback whose validation failed with an
+   * exception, e.g. because its key source failed, is given an
+   * {@code invalid_token} error without affecting the others.
+   *
+   * @param callbacks
+   *            the mandatory callbacks to validate
+   * @param pool
+   *            the mandatory pool to validate the distinct tokens on
+   */
+  public void validateAll(Collection<OAuthBearerValidatorCallback> callbacks, ForkJoinPool pool) {
+    if (!configured)
+      throw new IllegalStateException("Callback handler not configured");
+    Map<String, List<OAuthBearerValidatorCallback>> callbacksByToken = new LinkedHashMap<>();
+    for (OAuthBearerValidatorCallback callback : callbacks)
+      callbacksByToken.computeIfAbsent(callback.tokenValue(), t -> new ArrayList<>(1)).add(callback);
+    List<OAuthBearerValidatorCallback> distinct = new ArrayList<>(callbacksByToken.size());
+    for (List<OAuthBearerValidatorCallback> sameToken : callbacksByToken.values())
+      distinct.add(sameToken.get(0));
+    // a parallel stream started from within a pool task runs on that pool
+    pool.submit(() -> distinct.parallelStream().forEach(this::validateIsolated)).join();
+    for (List<OAuthBearerValidatorCallback> sameToken : callbacksByToken.values()) {
+      OAuthBearerValidatorCallback validated = sameToken.get(0);
+      for (OAuthBearerValidatorCallback duplicate : sameToken.subList(1, sameToken.size())) {
+        if (validated.token() != null)
+          duplicate.token(validated.token());
+        else
+          duplicate.error(validated.errorStatus(), validated.errorScope(), validated.errorOpenIDConfiguration());
+      }
+    }
+  }
+
+  private void validateIsolated(OAuthBearerValidatorCallback validationCallback) {
+    try {
+      validate(validationCallback);
+    } catch (RuntimeException e) {
+      LOG.error("Unable to validate token", e);
+      validationCallback.error("invalid_token", null, null);
+    }
+  }
+
+  /**
+   * Validate the given token values in parallel on the common fork-join pool
+   *
+   * @param tokenValues
+   *            the mandatory token values to validate
+   * @return the validated callbacks, one per token value and in the same order
+   * @see #validateAll(Collection, ForkJoinPool)
+   */
+  public List<OAuthBearerValidatorCallback> validateTokens(Collection<String> tokenValues) {
+    return validateTokens(tokenValues, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Validate the given token values in parallel on the given pool
+   *
+   * @param tokenValues
+   *            the mandatory token values to validate
+   * @param pool
+   *            the mandatory pool to validate the distinct tokens on
+   * @return the validated callbacks, one per token value and in the same order
+   * @see #validateAll(Collection, ForkJoinPool)
+   */
+  public List<OAuthBearerValidatorCallback> validateTokens(Collection<String> tokenValues, ForkJoinPool pool) {
+    List<OAuthBearerValidatorCallback> callbacks = new ArrayList<>(tokenValues.size());
+    for (String tokenValue : tokenValues)
+      callbacks.add(new OAuthBearerValidatorCallback(tokenValue));
+    validateAll(callbacks, pool);
+    return callbacks;
+  }
+
+  /**
+   * Validate the token of the given callback on the asynchronous validation
+   * executor. The executor is bounded by the
+   * {@code signedJwtValidatorAsyncThreads} and
+   * {@code signedJwtValidatorAsyncQueueSize} options; when its queue is full the
+   * returned future is completed exceptionally with a
+   * {@link RejectedExecutionException} and the rejection is counted. Once this
+   * instance has been closed the returned future is instead completed
+   * exceptionally with an {@link IllegalStateException}, which is not counted.
+   */
+  @Override
+  public CompletableFuture<OAuthBearerValidatorCallback> validateAsync(OAuthBearerValidatorCallback callback) {
+    Objects.requireNonNull(callback);
+    ThreadPoolExecutor executor = asyncExecutor;
+    if (executor == null)
+      throw new IllegalStateException("Callback handler not configured");
+    CompletableFuture<OAuthBearerValidatorCallback> future = new CompletableFuture<>();
+    if (executor.isShutdown()) {
+      future.completeExceptionally(new IllegalStateException("Callback handler is closed"));
+      return future;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          validate(callback);
+          future.complete(callback);
+        } catch (Throwable t) {
+          future.completeExceptionally(t);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the executor may have been shut down since it was checked
+      if (executor.isShutdown()) {
+        future.completeExceptionally(new IllegalStateException("Callback handler is closed"));
+      } else {
+        asyncRejections.increment();
+        future.completeExceptionally(e);
+      }
+    }
+    return future;
+  }
+
+  /**
+   * Return the number of asynchronous validations rejected because the
+   * validation queue was full; validations submitted after {@link #close()}
+   * are not counted
+   *
+   * @return the number of rejected asynchronous validations
+   */
+  public long asyncRejections() {
+    return asyncRejections.sum();
+  }
+
+  /**
+   * Return the number of asynchronous validations waiting for a thread
+   *
+   * @return the number of queued asynchronous validations
+   */
+  public int asyncQueueDepth() {
+    ThreadPoolExecutor executor = asyncExecutor;
+    return executor == null ? 0 : executor.getQueue().size();
+  }
+
+  /**
+   * Shut down the asynchronous validation executor, if this instance was
+   * configured. Validations already accepted are still completed.
+   */
+  @Override
+  public void close() {
+    ThreadPoolExecutor executor = asyncExecutor;
+    if (executor != null)
+      executor.shutdown();
+  }
+
+  // threads are only started once validations are submitted, and time out when idle
+  private static ThreadPoolExecutor newAsyncExecutor(OAuthBearerValidatorConfig config) {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(config.asyncThreads(), config.asyncThreads(),
+        60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(config.asyncQueueSize()), runnable -> {
+          Thread thread = new Thread(runnable, "oauthbearer-validator-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private void validate(OAuthBearerValidatorCallback validationCallback) {
+    String tokenValue = validationCallback.tokenValue();
     if (tokenValue == null)
       throw new IllegalArgumentException("Callback missing required token value");
-    String principalClaimName = principalClaimName();
-    String scopeClaimName = scopeClaimName();
-    List<String> requiredScope = requiredScope();
-    int allowableClockSkewMs = allowableClockSkewMs();
-    OAuthBearerSignedJwt jwt = new OAuthBearerSignedJwt(tokenValue, principalClaimName, scopeClaimName, jwkSet);
+    if (!configured)
+      throw new IllegalStateException("Callback handler not configured");
+    if (defaultContext != null)
+      validate(validationCallback, defaultContext, null);
+    else
+      route(validationCallback);
+  }
+
+  /**
+   * Validate the token of the given callback against the given issuer context,
+   * with the given optional peek at it, if it was already taken for routing
+   */
+  private void validate(OAuthBearerValidatorCallback validationCallback, IssuerContext context,
+                        OAuthBearerJwtPeek peek) {
+    String tokenValue = validationCallback.tokenValue();
+    final OAuthBearerValidatorConfig config = context.config;
+    final OAuthBearerTokenCache<OAuthBearerValidationResult> rejectedTokenCache = context.rejectedTokenCache;
     long now = System.currentTimeMillis();
-    OAuthBearerValidationUtils
-        .validateClaimForExistenceAndType(jwt, true, principalClaimName, String.class)
-        .throwExceptionIfFailed();
-    OAuthBearerValidationUtils.validateIssuedAt(jwt, false, now, allowableClockSkewMs)
-        .throwExceptionIfFailed();
-    OAuthBearerValidationUtils.validateExpirationTime(jwt, now, allowableClockSkewMs)
-        .throwExceptionIfFailed();
-    OAuthBearerValidationUtils.validateTimeConsistency(jwt).throwExceptionIfFailed();
-    OAuthBearerValidationUtils.validateScope(jwt, requiredScope).throwExceptionIfFailed();
+    OAuthBearerSignedJwtVerifier verifier = context.verifier();
+    // digested once, however many caches the token is looked up in or added to
+    TokenDigest digest = rejectedTokenCache != null || context.tokenCache != null ? TokenDigest.of(tokenValue) : null;
+    OAuthBearerValidationResult rejection =
+        rejectedTokenCache != null ? rejectedTokenCache.get(digest, verifier, now) : null;
+    if (rejection != null) {
+      LOG.debug("Rejecting recently rejected token: {}", rejection.failureDescription());
+      error(validationCallback, rejection);
+      return;
+    }
+    OAuthBearerValidationResult result;
+    try {
+      result = handleCallback(validationCallback, context, verifier, peek, digest, now);
+      if (!result.success())
+        logRejection(result, null);
+    } catch (OAuthBearerIllegalTokenException e) {
+      // thrown when the token cannot be parsed or verified; the exception is stackless, its cause says why
+      result = e.reason();
+      logRejection(result, e);
+    }
+    if (result.success())
+      return;
+    if (rejectedTokenCache != null)
+      rejectedTokenCache.put(digest, result, verifier, now + config.rejectedTokenCacheTtlMs(), now);
+    error(validationCallback, result);
+  }
+
+  /**
+   * Validate the token of the given callback against the context of the issuer
+   * it names, or reject it if it names no trusted issuer
+   */
+  private void route(OAuthBearerValidatorCallback validationCallback) {
+    long startNanos = System.nanoTime();
+    OAuthBearerValidationResult result;
+    try {
+      OAuthBearerJwtPeek peek = OAuthBearerJwtPeek.peek(validationCallback.tokenValue());
+      String issuer = peek.issuer();
+      IssuerContext context = issuer != null ? contextsByIssuer.get(issuer) : null;
+      if (context != null) {
+        OAuthBearerMetrics.ROUTE.record(startNanos, null);
+        // the header decoded for routing is reused for verification
+        validate(validationCallback, context, peek);
+        return;
+      }
+      result = issuer == null
+          ? NO_ISSUER
+          : OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.UNKNOWN_ISSUER, "Untrusted issuer: %s",
+              issuer);
+    } catch (ParseException e) {
+      result = OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.MALFORMED, "Malformed JWT: %s",
+          e.getMessage());
+    }
+    check(OAuthBearerMetrics.ROUTE, startNanos, result);
+    logRejection(result, null);
+    error(validationCallback, result);
+  }
+
+  /**
+   * Log the rejection of a token: its failure code at warning level, and its
+   * description, which is only formatted if needed, at debug level
+   */
+  private static void logRejection(OAuthBearerValidationResult result, OAuthBearerIllegalTokenException e) {
+    LOG.warn("Invalid token: {}", result.failureCode().reason());
+    if (LOG.isDebugEnabled()) {
+      String description = e == null || e.getCause() == null
+          ? result.failureDescription()
+          : result.failureDescription() + ": " + e.getCause().getMessage();
+      LOG.debug("Invalid token: {}", description, e);
+    }
+  }
+
+  private static void error(OAuthBearerValidatorCallback validationCallback,
+                            OAuthBearerValidationResult failureReason) {
+    String failureScope = failureReason.failureScope();
+    validationCallback.error(failureScope != null ? INSUFFICIENT_SCOPE : "invalid_token",
+        failureScope, failureReason.failureOpenIdConfig());
+  }
+
+  private OAuthBearerValidationResult handleCallback(OAuthBearerValidatorCallback callback, IssuerContext context,
+                                                     OAuthBearerSignedJwtVerifier verifier, OAuthBearerJwtPeek peek,
+                                                     TokenDigest digest, long now) {
+    String tokenValue = callback.tokenValue();
+    OAuthBearerValidatorConfig config = context.config;
+    OAuthBearerTokenCache<OAuthBearerSignedJwt> tokenCache = context.tokenCache;
+    OAuthBearerClaimScreener claimScreener = context.claimScreener;
+    String principalClaimName = config.principalClaimName();
+    int allowableClockSkewMs = config.allowableClockSkewMs();
+    // outcomes are cached against the verifier they were reached with, so none outlives a key rotation
+    OAuthBearerSignedJwt jwt = tokenCache != null ? tokenCache.get(digest, verifier, now) : null;
+    if (jwt == null) {
+      if (claimScreener != null) {
+        // a token rejected here is spared the signature verification; one accepted here is still fully checked
+        long startNanos = System.nanoTime();
+        OAuthBearerValidationResult screening = claimScreener.screen(tokenValue, now);
+        if (!check(OAuthBearerMetrics.SCREEN, startNanos, screening))
+          return screening;
+      }
+      jwt = verify(tokenValue, peek, context, verifier);
+      // the token was routed by its unverified issuer; the verified one must agree, e.g. on duplicate members
+      if (context.issuer != null && !context.issuer.equals(jwt.rawClaim("iss")))
+        return OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.UNKNOWN_ISSUER,
+            "Issuer claim does not match the routed issuer %s", context.issuer);
+      if (tokenCache != null)
+        tokenCache.put(digest, jwt, verifier, jwt.lifetimeMs() - allowableClockSkewMs, now);
+    }
+    Object jfrEvent = OAuthBearerJfr.AVAILABLE ? OAuthBearerClaimValidationEvent.start() : null;
+    OAuthBearerValidationResult result = OAuthBearerValidationResult.newSuccess();
+    try {
+      // each check returns a result rather than throwing, so a rejected token costs no exception
+      long startNanos = System.nanoTime();
+      result = OAuthBearerValidationUtils.validateClaimForExistenceAndType(jwt, true, principalClaimName, String.class);
+      if (!check(OAuthBearerMetrics.PRINCIPAL_CLAIM, startNanos, result))
+        return result;
+      startNanos = System.nanoTime();
+      result = OAuthBearerValidationUtils.validateIssuedAt(jwt, false, now, allowableClockSkewMs);
+      if (!check(OAuthBearerMetrics.ISSUED_AT_CLAIM, startNanos, result))
+        return result;
+      startNanos = System.nanoTime();
+      result = OAuthBearerValidationUtils.validateExpirationTime(jwt, now, allowableClockSkewMs);
+      if (!check(OAuthBearerMetrics.EXPIRATION_TIME_CLAIM, startNanos, result))
+        return result;
+      startNanos = System.nanoTime();
+      result = OAuthBearerValidationUtils.validateTimeConsistency(jwt);
+      if (!check(OAuthBearerMetrics.TIME_CONSISTENCY, startNanos, result))
+        return result;
+      startNanos = System.nanoTime();
+      result = OAuthBearerValidationUtils.validateScope(jwt, config.requiredScope());
+      if (!check(OAuthBearerMetrics.SCOPE, startNanos, result))
+        return result;
+    } finally {
+      if (jfrEvent != null)
+        OAuthBearerClaimValidationEvent.finish(jfrEvent, jwt.principalName(),
+            result.success() ? OAuthBearerJfr.SUCCESS : result.failureCode().reason());
+    }
     LOG.info("Successfully validated token with principal {}: {}", jwt.principalName(), jwt.claims());
     callback.token(jwt);
+    return result;
+  }
+
+  private static boolean check(OAuthBearerStageMetrics stage, long startNanos, OAuthBearerValidationResult result) {
+    stage.record(startNanos, result.success() ? null : result.failureCode().reason());
+    return result.success();
   }
 
-  private String principalClaimName() {
-    String principalClaimNameValue = option(PRINCIPAL_CLAIM_NAME_OPTION);
-    return Utils.isBlank(principalClaimNameValue) ? "sub" : principalClaimNameValue.trim();
+  private static OAuthBearerSignedJwt verify(String tokenValue, OAuthBearerJwtPeek peek, IssuerContext context,
+                                             OAuthBearerSignedJwtVerifier verifier) {
+    OAuthBearerValidatorConfig config = context.config;
+    try {
+      return newSignedJwt(tokenValue, peek, config, verifier);
+    } catch (OAuthBearerIllegalTokenException e) {
+      if (!(e.getCause() instanceof OAuthBearerUnknownKeyException))
+        throw e;
+      // the key set may have been rotated since it was loaded; retry once if the key source has a newer one
+      OAuthBearerSignedJwtVerifier retryVerifier =
+          context.keySource.verifierForUnknownKey(((OAuthBearerUnknownKeyException) e.getCause()).keyId());
+      if (retryVerifier == null || retryVerifier == verifier)
+        throw e;
+      return newSignedJwt(tokenValue, peek, config, retryVerifier);
+    }
   }
 
-  private String scopeClaimName() {
-    String scopeClaimNameValue = option(SCOPE_CLAIM_NAME_OPTION);
-    return Utils.isBlank(scopeClaimNameValue) ? "scope" : scopeClaimNameValue.trim();
+  private static OAuthBearerSignedJwt newSignedJwt(String tokenValue, OAuthBearerJwtPeek peek,
+                                                   OAuthBearerValidatorConfig config,
+                                                   OAuthBearerSignedJwtVerifier verifier) {
+    return peek != null
+        ? new OAuthBearerSignedJwt(peek, config.principalClaimName(), config.scopeClaimName(), verifier)
+        : new OAuthBearerSignedJwt(tokenValue, config.principalClaimName(), config.scopeClaimName(), verifier);
   }
 
-  private RSAPublicKey rsaPublicKey() {
+  private static OAuthBearerKeySource pemKeySource(Map<String, String> moduleOptions) {
     try {
-      String pemPublicKey = option(PUBLIC_KEY_PEM);
+      String pemPublicKey = moduleOptions.get(PUBLIC_KEY_PEM);
       if (Utils.isBlank(pemPublicKey)) {
-        throw new OAuthBearerConfigException("RSA public key is not configured");
+        throw new OAuthBearerConfigException("Public key is not configured");
       }
-      return CertificateUtil.parseRSAPublicKey(pemPublicKey);
+      OAuthBearerSignedJwtVerifier verifier = new OAuthBearerSignedJwtVerifier(
+          new JWKSet(CertificateUtil.parseJWK(pemPublicKey.trim(), moduleOptions.get(PUBLIC_KEY_ID))));
+      return () -> verifier;
     } catch (CertificateException e) {
       throw new OAuthBearerConfigException(e.getMessage(), e);
     }
   }
 
-  private List<String> requiredScope() {
-    String requiredSpaceDelimitedScope = option(REQUIRED_SCOPE_OPTION);
-    return Utils.isBlank(requiredSpaceDelimitedScope)
-        ? Collections.emptyList()
-        : OAuthBearerScopeUtils.parseScope(requiredSpaceDelimitedScope.trim());
-  }
+  /**
+   * The key source, settings and caches applying to the tokens of one issuer
+   */
+  private static final class IssuerContext {
+    // null if the key source is trusted whatever the issuer, as with a single key source
+    private final String issuer;
+    private final OAuthBearerKeySource keySource;
+    private final OAuthBearerValidatorConfig config;
+    private final OAuthBearerTokenCache<OAuthBearerSignedJwt> tokenCache;
+    private final OAuthBearerTokenCache<OAuthBearerValidationResult> rejectedTokenCache;
+    private final OAuthBearerClaimScreener claimScreener;
+    private volatile OAuthBearerSignedJwtVerifier cachedVerifier = null;
 
-  private int allowableClockSkewMs() {
-    String allowableClockSkewMsValue = option(ALLOWABLE_CLOCK_SKEW_MILLIS_OPTION);
-    int allowableClockSkewMs = 0;
-    try {
-      allowableClockSkewMs = Utils.isBlank(allowableClockSkewMsValue) ? 0 : Integer.parseInt(allowableClockSkewMsValue.trim());
-    } catch (NumberFormatException e) {
-      throw new OAuthBearerConfigException(e.getMessage(), e);
-    }
-    if (allowableClockSkewMs < 0) {
-      throw new OAuthBearerConfigException(
-          String.format("Allowable clock skew millis must not be negative: %s", allowableClockSkewMsValue));
+    IssuerContext(String issuer, OAuthBearerKeySource keySource, OAuthBearerValidatorConfig config) {
+      this.issuer = issuer;
+      this.keySource = keySource;
+      this.config = config;
+      this.tokenCache = config.tokenCacheMaxSize() > 0 ? new OAuthBearerTokenCache<>(config.tokenCacheMaxSize()) : null;
+      this.rejectedTokenCache = config.rejectedTokenCacheMaxSize() > 0
+          ? new OAuthBearerTokenCache<>(config.rejectedTokenCacheMaxSize())
+          : null;
+      this.claimScreener = config.preScreenClaims() ? new OAuthBearerClaimScreener(config) : null;
     }
-    return allowableClockSkewMs;
-  }
 
-  private String option(String key) {
-    if (!configured)
-      throw new IllegalStateException("Callback handler not configured");
-    return moduleOptions.get(Objects.requireNonNull(key));
+    OAuthBearerSignedJwtVerifier verifier() {
+      OAuthBearerSignedJwtVerifier verifier = keySource.verifier();
+      if (verifier != cachedVerifier) {
+        // outcomes cached against a rotated key set no longer hold: a token signed by a key that was
+        // removed must be rejected, and one signed by a key that was added may now be accepted. They
+        // are never returned for the new verifier; clearing them here just frees their space sooner,
+        // and an outcome a validation still in flight caches for the old verifier is ignored likewise
+        if (tokenCache != null)
+          tokenCache.clear();
+        if (rejectedTokenCache != null)
+          rejectedTokenCache.clear();
+        cachedVerifier = verifier;
+      }
+      return verifier;
+    }
   }
-
 }
@@ -0,0 +1,29 @@
+package org.cloudera.sasltestwork.oauthbearer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.security.auth.callback.CallbackHandler;
+
+/**
+ * A {@code CallbackHandler} that can validate tokens without blocking the
+ * calling thread. The SASL server uses it in
+ * {@code OAuthBearerSaslServer#evaluateResponseAsync(byte[])} so that network
+ * I/O threads are not tied up by signature verification.
+ */
+public interface OAuthBearerAsyncValidatorCallbackHandler extends CallbackHandler {
+  /**
+   * Validate the token of the given callback asynchronously. When the returned
+   * future completes normally, the callback has either been given a token or an
+   * error, exactly as if it had been passed to {@link #handle}.
+   *
+   * @param callback
+   *            the mandatory callback holding the token value to validate
+   * @return a future completed with the given callback once validation has
+   *         finished; it is completed exceptionally with a
+   *         {@link RejectedExecutionException} if the handler is saturated and
+   *         the validation was not accepted, or with an
+   *         {@link IllegalStateException} if the handler has been closed
+   */
+  CompletableFuture<OAuthBearerValidatorCallback> validateAsync(OAuthBearerValidatorCallback callback);
+}
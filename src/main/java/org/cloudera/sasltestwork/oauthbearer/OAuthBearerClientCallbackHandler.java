@@ -0,0 +1,21 @@
+package org.cloudera.sasltestwork.oauthbearer;
+
+import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerInitialResponseCache;
+
+import javax.security.auth.callback.CallbackHandler;
+
+/**
+ * A {@code CallbackHandler} handing out tokens to
+ * {@code OAuthBearerSaslClient} instances that also keeps the encoding of the
+ * client initial response for its current token, so that the connections it
+ * authenticates do not each encode the same response again.
+ */
+public interface OAuthBearerClientCallbackHandler extends CallbackHandler {
+  /**
+   * Return the (always non-null) cache of the encoded client initial response
+   * for this handler's tokens; the same instance is returned on every call
+   *
+   * @return the (always non-null) initial response cache of this handler
+   */
+  OAuthBearerInitialResponseCache initialResponseCache();
+}
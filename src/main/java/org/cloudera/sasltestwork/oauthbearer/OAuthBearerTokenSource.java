@@ -0,0 +1,21 @@
+package org.cloudera.sasltestwork.oauthbearer;
+
+import java.io.IOException;
+
+/**
+ * Client-side source of OAuth 2 bearer tokens, e.g. a token endpoint or a file
+ * written by a sidecar. Implementations are called from a single refresh thread
+ * and need not be thread-safe.
+ */
+public interface OAuthBearerTokenSource {
+  /**
+   * Retrieve a token. The token's {@link OAuthBearerToken#lifetimeMs()} and
+   * {@link OAuthBearerToken#startTimeMs()} determine when the next token is
+   * retrieved.
+   *
+   * @return the (always non-null) token
+   * @throws IOException
+   *             if no token could be retrieved
+   */
+  OAuthBearerToken retrieveToken() throws IOException;
+}
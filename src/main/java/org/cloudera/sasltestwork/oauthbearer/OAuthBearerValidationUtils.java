@@ -1,11 +1,12 @@
 package org.cloudera.sasltestwork.oauthbearer;
 
 import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerConfigException;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerFailureCode;
 import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerIllegalTokenException;
 import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerSignedJwt;
 import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerValidationResult;
 
-import java.util.List;
+import java.util.Collection;
 import java.util.Objects;
 import java.util.Set;
 
@@ -31,14 +32,15 @@ public class OAuthBearerValidationUtils {
     Object rawClaim = Objects.requireNonNull(jwt).rawClaim(Objects.requireNonNull(claimName));
     if (rawClaim == null)
       return required
-          ? OAuthBearerValidationResult.newFailure(String.format("Required claim missing: %s", claimName))
+          ? OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.MISSING_CLAIM,
+              "Required claim missing: %s", claimName)
           : OAuthBearerValidationResult.newSuccess();
     for (Class<?> allowedType : allowedTypes) {
       if (allowedType != null && allowedType.isAssignableFrom(rawClaim.getClass()))
         return OAuthBearerValidationResult.newSuccess();
     }
-    return OAuthBearerValidationResult.newFailure(String.format("The %s claim had the incorrect type: %s",
-        claimName, rawClaim.getClass().getSimpleName()));
+    return OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.INVALID_CLAIM_TYPE,
+        "The %s claim had the incorrect type: %s", claimName, rawClaim.getClass().getSimpleName());
   }
 
   /**
@@ -73,9 +75,9 @@ public class OAuthBearerValidationUtils {
       return doesNotExistResult(required, "iat");
     double doubleValue = value.doubleValue();
     return 1000 * doubleValue > whenCheckTimeMs + confirmNonNegative(allowableClockSkewMs)
-        ? OAuthBearerValidationResult.newFailure(String.format(
+        ? OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.NOT_YET_VALID,
         "The Issued At value (%f seconds) was after the indicated time (%d ms) plus allowable clock skew (%d ms)",
-        doubleValue, whenCheckTimeMs, allowableClockSkewMs))
+        doubleValue, whenCheckTimeMs, allowableClockSkewMs)
         : OAuthBearerValidationResult.newSuccess();
   }
 
@@ -109,9 +111,9 @@ public class OAuthBearerValidationUtils {
       return doesNotExistResult(true, "exp");
     double doubleValue = value.doubleValue();
     return whenCheckTimeMs - confirmNonNegative(allowableClockSkewMs) >= 1000 * doubleValue
-        ? OAuthBearerValidationResult.newFailure(String.format(
+        ? OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.EXPIRED,
         "The indicated time (%d ms) minus allowable clock skew (%d ms) was on or after the Expiration Time value (%f seconds)",
-        whenCheckTimeMs, allowableClockSkewMs, doubleValue))
+        whenCheckTimeMs, allowableClockSkewMs, doubleValue)
         : OAuthBearerValidationResult.newSuccess();
   }
 
@@ -137,9 +139,9 @@ public class OAuthBearerValidationUtils {
       return e.reason();
     }
     if (expirationTime != null && issuedAt != null && expirationTime.doubleValue() <= issuedAt.doubleValue())
-      return OAuthBearerValidationResult.newFailure(
-          String.format("The Expiration Time time (%f seconds) was not after the Issued At time (%f seconds)",
-              expirationTime.doubleValue(), issuedAt.doubleValue()));
+      return OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.INCONSISTENT_TIMES,
+          "The Expiration Time time (%f seconds) was not after the Issued At time (%f seconds)",
+          expirationTime.doubleValue(), issuedAt.doubleValue());
     return OAuthBearerValidationResult.newSuccess();
   }
 
@@ -155,16 +157,15 @@ public class OAuthBearerValidationUtils {
    *            will be validated
    * @return the result of the validation
    */
-  public static OAuthBearerValidationResult validateScope(OAuthBearerToken token, List<String> requiredScope) {
+  public static OAuthBearerValidationResult validateScope(OAuthBearerToken token, Collection<String> requiredScope) {
     final Set<String> tokenScope = token.scope();
     if (requiredScope == null || requiredScope.isEmpty())
       return OAuthBearerValidationResult.newSuccess();
     for (String requiredScopeElement : requiredScope) {
       if (!tokenScope.contains(requiredScopeElement))
-        return OAuthBearerValidationResult.newFailure(String.format(
-                "The provided scope (%s) was missing a required scope (%s).  All required scope elements: %s",
-                String.valueOf(tokenScope), requiredScopeElement, requiredScope.toString()),
-            requiredScope.toString(), null);
+        return OAuthBearerValidationResult.newScopeFailure(requiredScope.toString(),
+            "The provided scope (%s) was missing a required scope (%s).  All required scope elements: %s",
+            tokenScope, requiredScopeElement, requiredScope);
     }
     return OAuthBearerValidationResult.newSuccess();
   }
@@ -177,7 +178,9 @@ public class OAuthBearerValidationUtils {
   }
 
   private static OAuthBearerValidationResult doesNotExistResult(boolean required, String claimName) {
-    return required ? OAuthBearerValidationResult.newFailure(String.format("Required claim missing: %s", claimName))
+    return required
+        ? OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.MISSING_CLAIM, "Required claim missing: %s",
+            claimName)
         : OAuthBearerValidationResult.newSuccess();
   }
 
@@ -0,0 +1,77 @@
+package org.cloudera.sasltestwork.oauthbearer.internals;
+
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerToken;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable {@link OAuthBearerToken} holding values that were extracted from a
+ * token once, e.g. by a client-side token source, so that they are not
+ * recomputed on every handshake.
+ */
+public class BasicOAuthBearerToken implements OAuthBearerToken {
+  private final String value;
+  private final Set<String> scope;
+  private final long lifetimeMs;
+  private final String principalName;
+  private final Long startTimeMs;
+
+  /**
+   * Constructor
+   *
+   * @param value
+   *            the mandatory <code>b64token</code> value
+   * @param scope
+   *            the mandatory (but possibly empty) scope of access
+   * @param lifetimeMs
+   *            the token's expiry, in milliseconds since the epoch
+   * @param principalName
+   *            the mandatory principal name
+   * @param startTimeMs
+   *            the optional time the token was issued, in milliseconds since the
+   *            epoch
+   */
+  public BasicOAuthBearerToken(String value, Set<String> scope, long lifetimeMs, String principalName,
+                               Long startTimeMs) {
+    this.value = Objects.requireNonNull(value);
+    this.scope = Collections.unmodifiableSet(new LinkedHashSet<>(Objects.requireNonNull(scope)));
+    this.lifetimeMs = lifetimeMs;
+    this.principalName = Objects.requireNonNull(principalName);
+    this.startTimeMs = startTimeMs;
+  }
+
+  @Override
+  public String value() {
+    return value;
+  }
+
+  @Override
+  public Set<String> scope() {
+    return scope;
+  }
+
+  @Override
+  public long lifetimeMs() {
+    return lifetimeMs;
+  }
+
+  @Override
+  public String principalName() {
+    return principalName;
+  }
+
+  @Override
+  public Long startTimeMs() {
+    return startTimeMs;
+  }
+
+  @Override
+  public String toString() {
+    // never log the token value itself
+    return String.format("BasicOAuthBearerToken{principalName=%s, scope=%s, startTimeMs=%s, lifetimeMs=%d}",
+        principalName, scope, startTimeMs, lifetimeMs);
+  }
+}
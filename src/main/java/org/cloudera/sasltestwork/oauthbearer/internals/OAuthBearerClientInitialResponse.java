@@ -1,12 +1,12 @@
 package org.cloudera.sasltestwork.oauthbearer.internals;
 
 import org.cloudera.sasltestwork.SaslExtensions;
-import org.cloudera.sasltestwork.Utils;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.security.sasl.SaslException;
@@ -14,16 +14,20 @@ import javax.security.sasl.SaslException;
 public class OAuthBearerClientInitialResponse {
   public static final String SEPARATOR = "\u0001";
 
-  private static final String SASLNAME =  "(?:[\\x01-\\x7F&&[^=,]]|=2C|=3D)+";
+  /**
+   * The default maximum size, in bytes, of a client initial response accepted by
+   * the server
+   */
+  public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
   private static final String KEY = "[A-Za-z]+";
   private static final String VALUE = "[\\x21-\\x7E \t\r\n]+";
 
-  private static final String KVPAIRS = String.format("(%s=%s%s)*", KEY, VALUE, SEPARATOR);
-  private static final Pattern AUTH_PATTERN = Pattern.compile("(?<scheme>[\\w]+)[ ]+(?<token>[-_\\.a-zA-Z0-9]+)");
-  private static final Pattern CLIENT_INITIAL_RESPONSE_PATTERN = Pattern.compile(
-      String.format("n,(a=(?<authzid>%s))?,%s(?<kvpairs>%s)%s", SASLNAME, SEPARATOR, KVPAIRS, SEPARATOR));
   public static final String AUTH_KEY = "auth";
 
+  private static final byte SEPARATOR_BYTE = 0x01;
+  private static final byte[] AUTH_PREFIX = (AUTH_KEY + "=Bearer ").getBytes(StandardCharsets.US_ASCII);
+
   private final String tokenValue;
   private final String authorizationId;
   private final SaslExtensions saslExtensions;
@@ -31,32 +35,55 @@ public class OAuthBearerClientInitialResponse {
   public static final Pattern EXTENSION_KEY_PATTERN = Pattern.compile(KEY);
   public static final Pattern EXTENSION_VALUE_PATTERN = Pattern.compile(VALUE);
 
+  /**
+   * Parse the given client initial response, accepting at most
+   * {@link #DEFAULT_MAX_SIZE} bytes
+   *
+   * @param response
+   *            the mandatory response received from the client
+   * @throws SaslException
+   *             if the response is too large or is not a valid OAUTHBEARER
+   *             client first message
+   */
   public OAuthBearerClientInitialResponse(byte[] response) throws SaslException {
-    String responseMsg = new String(response, StandardCharsets.UTF_8);
-    Matcher matcher = CLIENT_INITIAL_RESPONSE_PATTERN.matcher(responseMsg);
-    if (!matcher.matches())
-      throw new SaslException("Invalid OAUTHBEARER client first message");
-    String authzid = matcher.group("authzid");
-    this.authorizationId = authzid == null ? "" : authzid;
-    String kvPairs = matcher.group("kvpairs");
-    Map<String, String> properties = Utils.parseMap(kvPairs, "=", SEPARATOR);
-    String auth = properties.get(AUTH_KEY);
-    if (auth == null)
-      throw new SaslException("Invalid OAUTHBEARER client first message: 'auth' not specified");
-    properties.remove(AUTH_KEY);
-    SaslExtensions extensions = new SaslExtensions(properties);
-    validateExtensions(extensions);
-    this.saslExtensions = extensions;
-
-    Matcher authMatcher = AUTH_PATTERN.matcher(auth);
-    if (!authMatcher.matches())
-      throw new SaslException("Invalid OAUTHBEARER client first message: invalid 'auth' format");
-    if (!"bearer".equalsIgnoreCase(authMatcher.group("scheme"))) {
-      String msg = String.format("Invalid scheme in OAUTHBEARER client first message: %s",
-          matcher.group("scheme"));
-      throw new SaslException(msg);
-    }
-    this.tokenValue = authMatcher.group("token");
+    this(response, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Parse the given client initial response
+   *
+   * @param response
+   *            the mandatory response received from the client
+   * @param maxSize
+   *            the maximum accepted response size in bytes
+   * @throws SaslException
+   *             if the response is too large or is not a valid OAUTHBEARER
+   *             client first message
+   */
+  public OAuthBearerClientInitialResponse(byte[] response, int maxSize) throws SaslException {
+    this(ByteBuffer.wrap(response), maxSize);
+  }
+
+  /**
+   * Parse the client initial response held in the remaining bytes of the given
+   * heap or direct buffer, without copying it and without changing the buffer's
+   * position
+   *
+   * @param response
+   *            the mandatory buffer holding the response received from the
+   *            client
+   * @param maxSize
+   *            the maximum accepted response size in bytes
+   * @throws SaslException
+   *             if the response is too large or is not a valid OAUTHBEARER
+   *             client first message
+   */
+  public OAuthBearerClientInitialResponse(ByteBuffer response, int maxSize) throws SaslException {
+    OAuthBearerClientInitialResponseParser parser = new OAuthBearerClientInitialResponseParser(response, maxSize);
+    this.authorizationId = parser.authorizationId();
+    this.tokenValue = parser.tokenValue();
+    // the grammar enforced by the parser already guarantees valid extension names and values
+    this.saslExtensions = new SaslExtensions(parser.extensions());
   }
 
   /**
@@ -105,16 +132,80 @@ public class OAuthBearerClientInitialResponse {
     return saslExtensions;
   }
 
+  /**
+   * Return the encoded client initial response as a new, exactly sized array
+   *
+   * @return the UTF-8 encoded client initial response
+   */
   public byte[] toBytes() {
-    String authzid = authorizationId.isEmpty() ? "" : "a=" + authorizationId;
-    String extensions = extensionsMessage();
-    if (extensions.length() > 0)
-      extensions = SEPARATOR + extensions;
+    byte[] bytes = new byte[encodedSize()];
+    encode(ByteBuffer.wrap(bytes));
+    return bytes;
+  }
+
+  /**
+   * Return the exact number of bytes written by {@link #writeTo(ByteBuffer)}
+   *
+   * @return the size of the encoded client initial response in bytes
+   */
+  public int encodedSize() {
+    // n,[a=<authzid>],^Aauth=Bearer <token>[^A<key>=<value>...]^A^A
+    int size = 2 + (authorizationId.isEmpty() ? 0 : 2 + utf8Length(authorizationId)) + 2
+        + AUTH_PREFIX.length + utf8Length(tokenValue) + 2;
+    for (Map.Entry<String, String> entry : saslExtensions.map().entrySet())
+      size += 2 + utf8Length(entry.getKey()) + utf8Length(entry.getValue());
+    return size;
+  }
 
-    String message = String.format("n,%s,%sauth=Bearer %s%s%s%s", authzid,
-        SEPARATOR, tokenValue, extensions, SEPARATOR, SEPARATOR);
+  /**
+   * Encode the client initial response into the given buffer, starting at its
+   * current position and advancing it by {@link #encodedSize()} bytes
+   *
+   * @param buffer
+   *            the mandatory heap or direct buffer to write to
+   * @throws BufferOverflowException
+   *             if the buffer has fewer than {@link #encodedSize()} bytes
+   *             remaining; nothing is written in that case
+   */
+  public void writeTo(ByteBuffer buffer) {
+    if (buffer.remaining() < encodedSize())
+      throw new BufferOverflowException();
+    encode(buffer);
+  }
+
+  private void encode(ByteBuffer buffer) {
+    buffer.put((byte) 'n').put((byte) ',');
+    if (!authorizationId.isEmpty()) {
+      buffer.put((byte) 'a').put((byte) '=');
+      putUtf8(buffer, authorizationId);
+    }
+    buffer.put((byte) ',').put(SEPARATOR_BYTE).put(AUTH_PREFIX);
+    putUtf8(buffer, tokenValue);
+    for (Map.Entry<String, String> entry : saslExtensions.map().entrySet()) {
+      buffer.put(SEPARATOR_BYTE);
+      putUtf8(buffer, entry.getKey());
+      buffer.put((byte) '=');
+      putUtf8(buffer, entry.getValue());
+    }
+    buffer.put(SEPARATOR_BYTE).put(SEPARATOR_BYTE);
+  }
 
-    return message.getBytes(StandardCharsets.UTF_8);
+  /**
+   * Encode the client initial response into the given array
+   *
+   * @param bytes
+   *            the mandatory, possibly reused, array to write to
+   * @param offset
+   *            the offset at which to start writing
+   * @return the number of bytes written
+   * @throws BufferOverflowException
+   *             if the array has fewer than {@link #encodedSize()} bytes
+   *             available after the offset; nothing is written in that case
+   */
+  public int writeTo(byte[] bytes, int offset) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, bytes.length - offset);
+    writeTo(buffer);
+    return buffer.position() - offset;
   }
 
   /**
@@ -165,10 +256,51 @@ public class OAuthBearerClientInitialResponse {
     }
   }
 
-  /**
-   * Converts the SASLExtensions to an OAuth protocol-friendly string
-   */
-  private String extensionsMessage() {
-    return Utils.mkString(saslExtensions.map(), "", "", "=", SEPARATOR);
+  private static int utf8Length(String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80)
+        length++;
+      else if (c < 0x800)
+        length += 2;
+      else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c))
+        length++; // encoded as '?', like String.getBytes
+      else
+        length += 3;
+    }
+    return length;
+  }
+
+  private static void putUtf8(ByteBuffer buffer, String value) {
+    int i = 0;
+    if (buffer.hasArray()) {
+      // fast path for the (usually entirely) ASCII prefix, bypassing per-byte buffer bookkeeping
+      byte[] array = buffer.array();
+      int offset = buffer.arrayOffset() + buffer.position();
+      for (char c; i < value.length() && (c = value.charAt(i)) < 0x80; i++)
+        array[offset + i] = (byte) c;
+      buffer.position(buffer.position() + i);
+    }
+    for (; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80)
+        buffer.put((byte) c);
+      else if (c < 0x800)
+        buffer.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+      else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer.put((byte) (0xF0 | (codePoint >> 18)))
+            .put((byte) (0x80 | ((codePoint >> 12) & 0x3F)))
+            .put((byte) (0x80 | ((codePoint >> 6) & 0x3F)))
+            .put((byte) (0x80 | (codePoint & 0x3F)));
+      } else if (Character.isSurrogate(c))
+        buffer.put((byte) '?');
+      else
+        buffer.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+    }
   }
 }
@@ -0,0 +1,229 @@
+package org.cloudera.sasltestwork.oauthbearer.internals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.sasl.SaslException;
+
+/**
+ * Single-pass parser for the OAUTHBEARER client initial response as defined in
+ * <a href="https://tools.ietf.org/html/rfc7628#section-3.1">RFC 7628, Section
+ * 3.1</a>. It works directly on the received bytes, visits every byte at most
+ * once and therefore runs in time linear in the size of the response:
+ *
+ * <pre>
+ * client-resp = "n," [ "a=" saslname ] "," %x01 *( key "=" value %x01 ) %x01
+ * saslname    = 1*( %x01-7F except "=" and "," / "=2C" / "=3D" )
+ * key         = 1*ALPHA
+ * value       = 1*( %x21-7E / SP / HTAB / CR / LF )
+ * auth value  = scheme 1*SP token
+ * scheme      = 1*( ALPHA / DIGIT / "_" )
+ * token       = 1*( ALPHA / DIGIT / "-" / "_" / "." )
+ * </pre>
+ *
+ * Every accepted response is pure ASCII, so no charset decoding is needed.
+ */
+final class OAuthBearerClientInitialResponseParser {
+  private static final byte SEPARATOR = 0x01;
+  private static final String INVALID_MESSAGE = "Invalid OAUTHBEARER client first message";
+  private static final byte[] BEARER = "bearer".getBytes(StandardCharsets.US_ASCII);
+
+  private final ByteBuffer buffer;
+  private final int start;
+  private final int limit;
+  private int position;
+
+  private String authorizationId = "";
+  private String tokenValue;
+  private final Map<String, String> extensions = new HashMap<>();
+
+  /**
+   * Parse the remaining bytes of the given buffer without changing its position
+   *
+   * @param buffer
+   *            the mandatory buffer holding the response
+   * @param maxSize
+   *            the maximum accepted response size in bytes
+   * @throws SaslException
+   *             if the response is too large or does not conform to the grammar
+   */
+  OAuthBearerClientInitialResponseParser(ByteBuffer buffer, int maxSize) throws SaslException {
+    this.buffer = buffer;
+    this.start = buffer.position();
+    this.limit = buffer.limit();
+    this.position = start;
+    if (limit - start > maxSize)
+      throw new SaslException(String.format("%s: size (%d bytes) exceeds the maximum of %d bytes",
+          INVALID_MESSAGE, limit - start, maxSize));
+    parse();
+  }
+
+  String authorizationId() {
+    return authorizationId;
+  }
+
+  String tokenValue() {
+    return tokenValue;
+  }
+
+  /**
+   * Return the extensions sent by the client, excluding the {@code auth} key
+   */
+  Map<String, String> extensions() {
+    return extensions;
+  }
+
+  private void parse() throws SaslException {
+    expect((byte) 'n');
+    expect((byte) ',');
+    if (peek() == 'a') {
+      position++;
+      expect((byte) '=');
+      authorizationId = parseSaslName();
+    }
+    expect((byte) ',');
+    expect(SEPARATOR);
+    int authStart = -1;
+    int authEnd = -1;
+    while (peek() != SEPARATOR) {
+      String key = parseKey();
+      expect((byte) '=');
+      int valueStart = position;
+      int valueEnd = skipValue();
+      expect(SEPARATOR);
+      if (OAuthBearerClientInitialResponse.AUTH_KEY.equals(key)) {
+        // as with any other key, the last occurrence wins
+        authStart = valueStart;
+        authEnd = valueEnd;
+      } else
+        extensions.put(key, asciiString(valueStart, valueEnd));
+    }
+    expect(SEPARATOR);
+    if (position != limit)
+      throw invalid("unexpected data after the final separator");
+    if (authStart < 0)
+      throw new SaslException(INVALID_MESSAGE + ": 'auth' not specified");
+    parseAuth(authStart, authEnd);
+  }
+
+  private String parseSaslName() throws SaslException {
+    int nameStart = position;
+    while (position < limit) {
+      int b = buffer.get(position);
+      if (b == ',')
+        break;
+      if (b == '=') {
+        if (!isEscape(position))
+          throw invalid("invalid escape sequence in authorization ID");
+        position += 3;
+      } else if (b > 0 && b <= 0x7F)
+        position++;
+      else
+        throw invalid("invalid character in authorization ID");
+    }
+    if (position == nameStart)
+      throw invalid("empty authorization ID");
+    return asciiString(nameStart, position);
+  }
+
+  private String parseKey() throws SaslException {
+    int keyStart = position;
+    while (position < limit && isAlpha(buffer.get(position)))
+      position++;
+    if (position == keyStart)
+      throw invalid("invalid or empty key");
+    return asciiString(keyStart, position);
+  }
+
+  private int skipValue() throws SaslException {
+    int valueStart = position;
+    while (position < limit && isValueChar(buffer.get(position)))
+      position++;
+    if (position == valueStart)
+      throw invalid("invalid or empty value");
+    return position;
+  }
+
+  private void parseAuth(int authStart, int authEnd) throws SaslException {
+    int i = authStart;
+    while (i < authEnd && isSchemeChar(buffer.get(i)))
+      i++;
+    int schemeEnd = i;
+    while (i < authEnd && buffer.get(i) == ' ')
+      i++;
+    int tokenStart = i;
+    while (i < authEnd && isTokenChar(buffer.get(i)))
+      i++;
+    if (schemeEnd == authStart || tokenStart == schemeEnd || i == tokenStart || i != authEnd)
+      throw new SaslException(INVALID_MESSAGE + ": invalid 'auth' format");
+    if (!isBearer(authStart, schemeEnd))
+      throw new SaslException(String.format("Invalid scheme in OAUTHBEARER client first message: %s",
+          asciiString(authStart, schemeEnd)));
+    tokenValue = asciiString(tokenStart, authEnd);
+  }
+
+  private boolean isBearer(int schemeStart, int schemeEnd) {
+    if (schemeEnd - schemeStart != BEARER.length)
+      return false;
+    for (int i = 0; i < BEARER.length; i++) {
+      if ((buffer.get(schemeStart + i) | 0x20) != BEARER[i])
+        return false;
+    }
+    return true;
+  }
+
+  private boolean isEscape(int at) {
+    if (at + 2 >= limit)
+      return false;
+    byte first = buffer.get(at + 1);
+    byte second = buffer.get(at + 2);
+    return (first == '2' && second == 'C') || (first == '3' && second == 'D');
+  }
+
+  private int peek() {
+    return position < limit ? buffer.get(position) : -1;
+  }
+
+  private void expect(byte expected) throws SaslException {
+    if (position >= limit)
+      throw invalid("unexpected end of message");
+    if (buffer.get(position) != expected)
+      throw invalid(String.format("expected 0x%02X", expected));
+    position++;
+  }
+
+  private SaslException invalid(String reason) {
+    return new SaslException(String.format("%s: %s at offset %d", INVALID_MESSAGE, reason, position - start));
+  }
+
+  private String asciiString(int from, int to) {
+    if (buffer.hasArray())
+      return new String(buffer.array(), buffer.arrayOffset() + from, to - from, StandardCharsets.US_ASCII);
+    byte[] bytes = new byte[to - from];
+    for (int i = from; i < to; i++)
+      bytes[i - from] = buffer.get(i);
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+
+  private static boolean isAlpha(int b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+  }
+
+  private static boolean isDigit(int b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static boolean isValueChar(int b) {
+    return (b >= 0x21 && b <= 0x7E) || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+
+  private static boolean isSchemeChar(int b) {
+    return isAlpha(b) || isDigit(b) || b == '_';
+  }
+
+  private static boolean isTokenChar(int b) {
+    return isAlpha(b) || isDigit(b) || b == '-' || b == '_' || b == '.';
+  }
+}
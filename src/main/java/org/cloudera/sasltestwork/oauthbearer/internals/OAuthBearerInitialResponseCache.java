@@ -0,0 +1,64 @@
+package org.cloudera.sasltestwork.oauthbearer.internals;
+
+import org.cloudera.sasltestwork.SaslExtensions;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerToken;
+
+import java.util.Objects;
+
+import javax.security.sasl.SaslException;
+
+/**
+ * The encoded client initial response for the most recent token and extensions
+ * of one client callback handler. Connections are usually opened in bursts with
+ * the same token, so they all reuse one encoding; only a new token instance or
+ * changed extensions cause a rebuild. Each callback handler has its own cache,
+ * so clients of different principals do not evict each other's encodings.
+ */
+public class OAuthBearerInitialResponseCache {
+  private volatile EncodedInitialResponse last;
+
+  /**
+   * Return the (always non-null) encoded client initial response for the given
+   * token and extensions. The returned array is shared and must not be
+   * modified.
+   *
+   * @param token
+   *            the mandatory token, matched by identity
+   * @param extensions
+   *            the mandatory extensions, matched by equality
+   * @return the (always non-null) shared encoded client initial response
+   * @throws SaslException
+   *             if the extensions are invalid
+   */
+  public byte[] encode(OAuthBearerToken token, SaslExtensions extensions) throws SaslException {
+    Objects.requireNonNull(token);
+    EncodedInitialResponse encoded = last;
+    if (encoded == null || !encoded.matches(token, extensions)) {
+      // validates the extensions, so a reused encoding never needs to validate them again
+      OAuthBearerClientInitialResponse initialResponse = new OAuthBearerClientInitialResponse(token.value(),
+          extensions);
+      encoded = new EncodedInitialResponse(token, extensions, initialResponse.toBytes());
+      last = encoded;
+    }
+    return encoded.bytes;
+  }
+
+  /**
+   * A client initial response encoded for the given token and extensions
+   */
+  private static final class EncodedInitialResponse {
+    private final OAuthBearerToken token;
+    private final SaslExtensions extensions;
+    private final byte[] bytes;
+
+    private EncodedInitialResponse(OAuthBearerToken token, SaslExtensions extensions, byte[] bytes) {
+      this.token = token;
+      this.extensions = extensions;
+      this.bytes = bytes;
+    }
+
+    boolean matches(OAuthBearerToken token, SaslExtensions extensions) {
+      return this.token == token && this.extensions.equals(extensions);
+    }
+  }
+}
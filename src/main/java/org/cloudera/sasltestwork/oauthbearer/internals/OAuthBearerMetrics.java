@@ -0,0 +1,75 @@
+package org.cloudera.sasltestwork.oauthbearer.internals;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide latency and outcome metrics of the stages of OAUTHBEARER
+ * authentication on the server. Each stage is published on the platform MBean
+ * server as {@code org.cloudera.sasltestwork:type=OAuthBearerMetrics,stage=<name>}.
+ */
+public final class OAuthBearerMetrics {
+  private static final Logger LOG = LoggerFactory.getLogger(OAuthBearerMetrics.class);
+  public static final String JMX_DOMAIN = "org.cloudera.sasltestwork";
+  private static final List<OAuthBearerStageMetrics> STAGES = new ArrayList<>();
+
+  /**
+   * A whole {@code OAuthBearerSaslServer} response evaluation
+   */
+  public static final OAuthBearerStageMetrics RESPONSE = stage("evaluateResponse");
+  /**
+   * Parsing of the client initial response
+   */
+  public static final OAuthBearerStageMetrics PARSE = stage("parse");
+  /**
+   * Routing of the token to the settings of its issuer, if several issuers are trusted
+   */
+  public static final OAuthBearerStageMetrics ROUTE = stage("route");
+  /**
+   * Screening of the token's claims before its signature is verified, if enabled
+   */
+  public static final OAuthBearerStageMetrics SCREEN = stage("screen");
+  /**
+   * Parsing of the token and verification of its signature and standard claims
+   */
+  public static final OAuthBearerStageMetrics VERIFY = stage("verify");
+  public static final OAuthBearerStageMetrics PRINCIPAL_CLAIM = stage("principalClaim");
+  public static final OAuthBearerStageMetrics ISSUED_AT_CLAIM = stage("issuedAtClaim");
+  public static final OAuthBearerStageMetrics EXPIRATION_TIME_CLAIM = stage("expirationTimeClaim");
+  public static final OAuthBearerStageMetrics TIME_CONSISTENCY = stage("timeConsistency");
+  public static final OAuthBearerStageMetrics SCOPE = stage("scope");
+
+  /**
+   * Return the (always non-null) unmodifiable list of the metrics of every stage
+   *
+   * @return the (always non-null) metrics of every stage
+   */
+  public static List<OAuthBearerStageMetrics> stages() {
+    return Collections.unmodifiableList(STAGES);
+  }
+
+  private static OAuthBearerStageMetrics stage(String name) {
+    OAuthBearerStageMetrics stage = new OAuthBearerStageMetrics(name);
+    STAGES.add(stage);
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(stage,
+          new ObjectName(String.format("%s:type=OAuthBearerMetrics,stage=%s", JMX_DOMAIN, name)));
+    } catch (JMException | SecurityException e) {
+      // e.g. already registered by another copy of this class; the metrics are still recorded
+      LOG.warn("Unable to register OAUTHBEARER metrics for stage {}: {}", name, e.getMessage());
+    }
+    return stage;
+  }
+
+  private OAuthBearerMetrics() {
+    // empty
+  }
+}
@@ -2,12 +2,17 @@ package org.cloudera.sasltestwork.oauthbearer.internals;
 
 import org.cloudera.sasltestwork.SaslExtensions;
 import org.cloudera.sasltestwork.oauthbearer.IllegalSaslStateException;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerClientCallbackHandler;
 import org.cloudera.sasltestwork.oauthbearer.OAuthBearerTokenCallback;
 import org.cloudera.sasltestwork.oauthbearer.SaslExtensionsCallback;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerClientInitialResponseEvent;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerExtensionsEvent;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerJfr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Objects;
@@ -22,6 +27,8 @@ public class OAuthBearerSaslClient implements SaslClient {
   static final String MECHANISM = "OAUTHBEARER";
   public static final byte BYTE_CONTROL_A = (byte) 0x01;
   private static final Logger LOG = LoggerFactory.getLogger(OAuthBearerSaslClient.class);
+  private static final ByteBuffer EMPTY_CHALLENGE = ByteBuffer.allocate(0);
+  private static final String FAILURE = "failure";
   private final CallbackHandler callbackHandler;
 
   enum State {
@@ -55,26 +62,61 @@ public class OAuthBearerSaslClient implements SaslClient {
 
   @Override
   public byte[] evaluateChallenge(byte[] challenge) throws SaslException {
+    ClientMessage message = nextMessage(challenge == null ? EMPTY_CHALLENGE : ByteBuffer.wrap(challenge));
+    return message == null ? null : message.toBytes();
+  }
+
+  /**
+   * Evaluate the challenge held in the remaining bytes of the given heap or
+   * direct buffer and write the response to send to the server, if any, into the
+   * given buffer. The challenge buffer's position is advanced to its limit.
+   *
+   * @param challenge
+   *            the mandatory buffer holding the challenge from the server
+   * @param response
+   *            the mandatory buffer the response is written to, starting at its
+   *            position
+   * @return the number of bytes written to the response buffer, or -1 if no
+   *         response is to be sent (where {@link #evaluateChallenge(byte[])}
+   *         would return null)
+   * @throws SaslException
+   *             if the challenge is invalid, or if the response buffer does not
+   *             have enough room for the response; the exchange fails in either
+   *             case
+   * @see #evaluateChallenge(byte[])
+   */
+  public int evaluateChallenge(ByteBuffer challenge, ByteBuffer response) throws SaslException {
+    ClientMessage message = nextMessage(challenge);
+    if (message == null)
+      return -1;
+    int size = message.size();
+    if (response.remaining() < size) {
+      setState(State.FAILED);
+      throw new SaslException(String.format("Response buffer too small: %d bytes needed, %d available",
+          size, response.remaining()));
+    }
+    message.writeTo(response);
+    return size;
+  }
+
+  private ClientMessage nextMessage(ByteBuffer challenge) throws SaslException {
     try {
       OAuthBearerTokenCallback callback = new OAuthBearerTokenCallback();
+      boolean emptyChallenge = !challenge.hasRemaining();
       switch (state) {
 
         case SEND_CLIENT_FIRST_MESSAGE:
-          if (challenge != null && challenge.length != 0)
+          if (!emptyChallenge)
             throw new SaslException("Expected empty challenge");
-          callbackHandler().handle(new Callback[] {callback});
-          SaslExtensions extensions = retrieveCustomExtensions();
-          setState(State.RECEIVE_SERVER_FIRST_MESSAGE);
-          return new OAuthBearerClientInitialResponse(callback.token().value(), extensions).toBytes();
+          return initialResponse(callback);
 
         case RECEIVE_SERVER_FIRST_MESSAGE:
-          if (challenge != null && challenge.length != 0) {
-            String jsonErrorResponse = new String(challenge, StandardCharsets.UTF_8);
+          if (!emptyChallenge) {
             if (LOG.isDebugEnabled())
               LOG.debug("Sending %%x01 response to server after receiving an error: {}",
-                  jsonErrorResponse);
+                  StandardCharsets.UTF_8.decode(challenge.duplicate()));
             setState(State.RECEIVE_SERVER_MESSAGE_AFTER_FAILURE);
-            return new byte[] {BYTE_CONTROL_A};
+            return ClientMessage.CONTROL_A;
           }
           callbackHandler().handle(new Callback[] {callback});
           if (LOG.isDebugEnabled())
@@ -90,9 +132,42 @@ public class OAuthBearerSaslClient implements SaslClient {
     } catch (IOException | UnsupportedCallbackException e) {
       setState(State.FAILED);
       throw new SaslException(e.getMessage(), e);
+    } finally {
+      challenge.position(challenge.limit());
     }
   }
 
+  private ClientMessage initialResponse(OAuthBearerTokenCallback callback)
+      throws IOException, UnsupportedCallbackException {
+    Object jfrEvent = OAuthBearerJfr.AVAILABLE ? OAuthBearerClientInitialResponseEvent.start() : null;
+    ClientMessage message = null;
+    try {
+      callbackHandler().handle(new Callback[] {callback});
+      SaslExtensions extensions = retrieveCustomExtensions();
+      message = initialResponseMessage(callback, extensions);
+      setState(State.RECEIVE_SERVER_FIRST_MESSAGE);
+      return message;
+    } finally {
+      if (jfrEvent != null)
+        OAuthBearerClientInitialResponseEvent.finish(jfrEvent,
+            callback.token() != null ? callback.token().principalName() : null,
+            message != null ? message.size() : 0, message != null ? OAuthBearerJfr.SUCCESS : FAILURE);
+    }
+  }
+
+  private ClientMessage initialResponseMessage(OAuthBearerTokenCallback callback, SaslExtensions extensions)
+      throws SaslException {
+    // connections sharing a callback handler usually share its token too, and so can share its encoding
+    if (callbackHandler instanceof OAuthBearerClientCallbackHandler)
+      return ClientMessage.shared(((OAuthBearerClientCallbackHandler) callbackHandler).initialResponseCache()
+          .encode(callback.token(), extensions));
+    OAuthBearerClientInitialResponse initialResponse =
+        new OAuthBearerClientInitialResponse(callback.token().value(), extensions);
+    byte[] bytes = new byte[initialResponse.encodedSize()];
+    initialResponse.writeTo(bytes, 0);
+    return ClientMessage.owned(bytes);
+  }
+
   @Override
   public boolean isComplete() {
     return state == State.COMPLETE;
@@ -128,15 +203,58 @@ public class OAuthBearerSaslClient implements SaslClient {
     this.state = state;
   }
 
+  /**
+   * A message to send to the server: either a shared, never modified sequence of
+   * bytes, such as a fixed one or a cached encoding, or an encoding made for
+   * this message alone, which is handed out without copying
+   */
+  private static final class ClientMessage {
+    private static final ClientMessage CONTROL_A = shared(new byte[] {BYTE_CONTROL_A});
+
+    private final byte[] bytes;
+    private final boolean shared;
+
+    private ClientMessage(byte[] bytes, boolean shared) {
+      this.bytes = bytes;
+      this.shared = shared;
+    }
+
+    static ClientMessage shared(byte[] bytes) {
+      return new ClientMessage(bytes, true);
+    }
+
+    static ClientMessage owned(byte[] bytes) {
+      return new ClientMessage(bytes, false);
+    }
+
+    int size() {
+      return bytes.length;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+      buffer.put(bytes);
+    }
+
+    byte[] toBytes() {
+      return shared ? bytes.clone() : bytes;
+    }
+  }
+
   private SaslExtensions retrieveCustomExtensions() throws SaslException {
+    Object jfrEvent = OAuthBearerJfr.AVAILABLE ? OAuthBearerExtensionsEvent.start() : null;
     SaslExtensionsCallback extensionsCallback = new SaslExtensionsCallback();
+    String outcome = OAuthBearerJfr.SUCCESS;
     try {
       callbackHandler().handle(new Callback[] {extensionsCallback});
     } catch (UnsupportedCallbackException e) {
       LOG.debug("Extensions callback is not supported by client callback handler {}, no extensions will be added",
           callbackHandler());
     } catch (Exception e) {
+      outcome = FAILURE;
       throw new SaslException("SASL extensions could not be obtained", e);
+    } finally {
+      if (jfrEvent != null)
+        OAuthBearerExtensionsEvent.finish(jfrEvent, null, extensionsCallback.extensions().map().size(), outcome);
     }
 
     return extensionsCallback.extensions();
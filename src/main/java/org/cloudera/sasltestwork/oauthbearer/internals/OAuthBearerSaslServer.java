@@ -3,16 +3,26 @@ package org.cloudera.sasltestwork.oauthbearer.internals;
 import org.cloudera.sasltestwork.SaslAuthenticationException;
 import org.cloudera.sasltestwork.SaslExtensions;
 import org.cloudera.sasltestwork.Utils;
+import org.cloudera.sasltestwork.oauthbearer.IllegalSaslStateException;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerAsyncValidatorCallbackHandler;
 import org.cloudera.sasltestwork.oauthbearer.OAuthBearerExtensionsValidatorCallback;
 import org.cloudera.sasltestwork.oauthbearer.OAuthBearerToken;
 import org.cloudera.sasltestwork.oauthbearer.OAuthBearerValidatorCallback;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerExtensionsEvent;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerJfr;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerParseEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -24,16 +34,35 @@ public class OAuthBearerSaslServer implements SaslServer {
   private static final Logger LOG = LoggerFactory.getLogger(OAuthBearerSaslServer.class);
 
   public static final String MECHANISM = "OAUTHBEARER";
+  /**
+   * SASL server property holding the maximum accepted size, in bytes, of the
+   * client initial response; defaults to
+   * {@link OAuthBearerClientInitialResponse#DEFAULT_MAX_SIZE}
+   */
+  public static final String MAX_RESPONSE_SIZE_PROP = "org.cloudera.sasltestwork.oauthbearer.maxResponseSize";
   private static final String INTERNAL_ERROR_ON_SERVER = "Authentication could not be performed due to an internal error on the server";
+  private static final String TOKEN_REJECTED = "token_rejected";
+  private static final String INVALID_MESSAGE = "invalid_message";
+  private static final String INVALID_EXTENSIONS = "invalid_extensions";
+  private static final String INTERNAL_ERROR = "internal_error";
 
   private final CallbackHandler callbackHandler;
+  private final int maxResponseSize;
   private String errorMessage = null;
   private boolean complete;
   private SaslExtensions extensions;
   private OAuthBearerToken tokenForNegotiatedProperty = null;
+  private volatile boolean pending = false;
 
   public OAuthBearerSaslServer(CallbackHandler callbackHandler) {
+    this(callbackHandler, OAuthBearerClientInitialResponse.DEFAULT_MAX_SIZE);
+  }
+
+  public OAuthBearerSaslServer(CallbackHandler callbackHandler, int maxResponseSize) {
+    if (maxResponseSize <= 0)
+      throw new IllegalArgumentException(String.format("Maximum response size must be positive: %d", maxResponseSize));
     this.callbackHandler = callbackHandler;
+    this.maxResponseSize = maxResponseSize;
   }
 
   @Override
@@ -43,21 +72,161 @@ public class OAuthBearerSaslServer implements SaslServer {
 
   @Override
   public byte[] evaluateResponse(byte[] response) throws SaslException {
-    if (response.length == 1 && response[0] == OAuthBearerSaslClient.BYTE_CONTROL_A && errorMessage != null) {
-      LOG.info("Received %x01 response from client after it received our error");
-      throw new SaslAuthenticationException(errorMessage);
+    return evaluate(ByteBuffer.wrap(response), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Evaluate the response held in the remaining bytes of the given heap or
+   * direct buffer, without copying it, and write the challenge to send back to
+   * the client, if any, into the given buffer. The response buffer's position is
+   * advanced to its limit, unless the challenge does not fit.
+   *
+   * @param response
+   *            the mandatory buffer holding the response from the client
+   * @param challenge
+   *            the mandatory buffer the challenge is written to, starting at its
+   *            position
+   * @return the number of bytes written to the challenge buffer, which may be
+   *         zero
+   * @throws SaslException
+   *             if the response is invalid
+   * @throws BufferOverflowException
+   *             if the challenge buffer does not have enough room for the error
+   *             challenge; the position of the response buffer and the state of
+   *             the exchange are then left as they were, so the response may be
+   *             evaluated again with a larger challenge buffer, which validates
+   *             its token again
+   * @see #evaluateResponse(byte[])
+   */
+  public int evaluateResponse(ByteBuffer response, ByteBuffer challenge) throws SaslException {
+    int position = response.position();
+    String previousErrorMessage = errorMessage;
+    try {
+      byte[] reply = evaluate(response, challenge.remaining());
+      challenge.put(reply);
+      return reply.length;
+    } catch (BufferOverflowException e) {
+      // only parsing has reset the error message and consumed the response by then
+      response.position(position);
+      errorMessage = previousErrorMessage;
+      throw e;
     }
-    errorMessage = null;
+  }
 
+  /**
+   * Evaluate the response without blocking the calling thread on token
+   * validation. If the callback handler is an
+   * {@link OAuthBearerAsyncValidatorCallbackHandler} the token is validated on
+   * its executor and the rest of the exchange completes on the validating
+   * thread; otherwise the response is evaluated synchronously. Either way the
+   * client initial response is parsed on the calling thread.
+   * <p>
+   * No other response may be evaluated until the returned future has completed.
+   *
+   * @param response
+   *            the mandatory response from the client
+   * @return a future completed with the challenge to send back to the client, as
+   *         returned by {@link #evaluateResponse(byte[])}; it is completed
+   *         exceptionally with a {@link SaslException} if authentication fails,
+   *         or with a {@link RejectedExecutionException} if the callback handler
+   *         is saturated, in which case the response may be retried
+   * @throws SaslException
+   *             if the response cannot be parsed or a previous response is still
+   *             being evaluated
+   */
+  public CompletableFuture<byte[]> evaluateResponseAsync(byte[] response) throws SaslException {
+    if (pending)
+      throw new IllegalSaslStateException("A response is already being evaluated");
+    if (!(callbackHandler instanceof OAuthBearerAsyncValidatorCallbackHandler))
+      return CompletableFuture.completedFuture(evaluateResponse(response));
+    long startNanos = System.nanoTime();
     OAuthBearerClientInitialResponse clientResponse;
+    CompletableFuture<OAuthBearerValidatorCallback> validation;
+    try {
+      clientResponse = parse(ByteBuffer.wrap(response));
+      OAuthBearerValidatorCallback callback = new OAuthBearerValidatorCallback(clientResponse.tokenValue());
+      pending = true;
+      try {
+        validation = ((OAuthBearerAsyncValidatorCallbackHandler) callbackHandler).validateAsync(callback);
+      } catch (RuntimeException e) {
+        pending = false;
+        throw e;
+      }
+    } catch (SaslException | RuntimeException e) {
+      OAuthBearerMetrics.RESPONSE.record(startNanos, e.getClass().getSimpleName());
+      throw e;
+    }
+    return validation.handle((validatedCallback, error) -> {
+          // the next response may only be evaluated once this one has changed the state of the exchange
+          try {
+            if (error != null) {
+              Throwable cause = error instanceof CompletionException && error.getCause() != null
+                  ? error.getCause()
+                  : error;
+              OAuthBearerMetrics.RESPONSE.record(startNanos, cause.getClass().getSimpleName());
+              throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+            try {
+              byte[] reply = complete(validatedCallback, clientResponse.authorizationId(), clientResponse.extensions(),
+                  Integer.MAX_VALUE);
+              OAuthBearerMetrics.RESPONSE.record(startNanos, complete ? null : TOKEN_REJECTED);
+              return reply;
+            } catch (SaslException | RuntimeException e) {
+              OAuthBearerMetrics.RESPONSE.record(startNanos, e.getClass().getSimpleName());
+              throw new CompletionException(e);
+            }
+          } finally {
+            pending = false;
+          }
+        });
+  }
+
+  private byte[] evaluate(ByteBuffer response, int maxReplySize) throws SaslException {
+    if (pending)
+      throw new IllegalSaslStateException("A response is already being evaluated");
+    long startNanos = System.nanoTime();
     try {
-      clientResponse = new OAuthBearerClientInitialResponse(response);
+      OAuthBearerClientInitialResponse clientResponse = parse(response);
+      byte[] reply = process(clientResponse.tokenValue(), clientResponse.authorizationId(),
+          clientResponse.extensions(), maxReplySize);
+      OAuthBearerMetrics.RESPONSE.record(startNanos, complete ? null : TOKEN_REJECTED);
+      return reply;
+    } catch (SaslException | RuntimeException e) {
+      OAuthBearerMetrics.RESPONSE.record(startNanos, e.getClass().getSimpleName());
+      throw e;
+    }
+  }
+
+  private OAuthBearerClientInitialResponse parse(ByteBuffer response) throws SaslException {
+    try {
+      if (response.remaining() == 1 && response.get(response.position()) == OAuthBearerSaslClient.BYTE_CONTROL_A
+          && errorMessage != null) {
+        LOG.info("Received %x01 response from client after it received our error");
+        throw new SaslAuthenticationException(errorMessage);
+      }
+      errorMessage = null;
+      long startNanos = System.nanoTime();
+      int responseSize = response.remaining();
+      Object jfrEvent = OAuthBearerJfr.AVAILABLE ? OAuthBearerParseEvent.start() : null;
+      try {
+        OAuthBearerClientInitialResponse clientResponse = new OAuthBearerClientInitialResponse(response,
+            maxResponseSize);
+        OAuthBearerMetrics.PARSE.record(startNanos, null);
+        if (jfrEvent != null)
+          OAuthBearerParseEvent.finish(jfrEvent, responseSize, OAuthBearerJfr.SUCCESS);
+        return clientResponse;
+      } catch (SaslException e) {
+        OAuthBearerMetrics.PARSE.record(startNanos, INVALID_MESSAGE);
+        if (jfrEvent != null)
+          OAuthBearerParseEvent.finish(jfrEvent, responseSize, INVALID_MESSAGE);
+        throw e;
+      }
     } catch (SaslException e) {
       LOG.error("Unable to parse client initial response", e);
       throw e;
+    } finally {
+      response.position(response.limit());
     }
-
-    return process(clientResponse.tokenValue(), clientResponse.authorizationId(), clientResponse.extensions());
   }
 
   @Override
@@ -98,19 +267,34 @@ public class OAuthBearerSaslServer implements SaslServer {
     return null;
   }
 
-  private byte[] process(String tokenValue, String authorizationId, SaslExtensions extensions) throws SaslException {
+  private byte[] process(String tokenValue, String authorizationId, SaslExtensions extensions, int maxReplySize)
+      throws SaslException {
     OAuthBearerValidatorCallback callback = new OAuthBearerValidatorCallback(tokenValue);
     try {
       callbackHandler.handle(new Callback[] {callback});
     } catch (IOException | UnsupportedCallbackException e) {
       handleCallbackError(e);
     }
+    return complete(callback, authorizationId, extensions, maxReplySize);
+  }
+
+  /*
+   * The state of the exchange is only advanced once the reply is known to fit
+   * in maxReplySize bytes, so that a caller whose buffer was too small can
+   * restore the response and evaluate it again.
+   */
+  private byte[] complete(OAuthBearerValidatorCallback callback, String authorizationId, SaslExtensions extensions,
+      int maxReplySize) throws SaslException {
     OAuthBearerToken token = callback.token();
     if (token == null) {
-      errorMessage = jsonErrorResponse(callback.errorStatus(), callback.errorScope(),
+      String error = jsonErrorResponse(callback.errorStatus(), callback.errorScope(),
           callback.errorOpenIDConfiguration());
+      byte[] reply = error.getBytes(StandardCharsets.UTF_8);
+      if (reply.length > maxReplySize)
+        throw new BufferOverflowException();
+      errorMessage = error;
       LOG.info(errorMessage);
-      return errorMessage.getBytes(StandardCharsets.UTF_8);
+      return reply;
     }
     /*
      * We support the client specifying an authorization ID as per the SASL
@@ -148,22 +332,31 @@ public class OAuthBearerSaslServer implements SaslServer {
   }
 
   private Map<String, String> processExtensions(OAuthBearerToken token, SaslExtensions extensions) throws SaslException {
-    OAuthBearerExtensionsValidatorCallback extensionsCallback = new OAuthBearerExtensionsValidatorCallback(token, extensions);
+    Object jfrEvent = OAuthBearerJfr.AVAILABLE ? OAuthBearerExtensionsEvent.start() : null;
+    String outcome = INTERNAL_ERROR;
     try {
-      callbackHandler.handle(new Callback[] {extensionsCallback});
-    } catch (UnsupportedCallbackException e) {
-      // backwards compatibility - no extensions will be added
-    } catch (IOException e) {
-      handleCallbackError(e);
+      OAuthBearerExtensionsValidatorCallback extensionsCallback =
+          new OAuthBearerExtensionsValidatorCallback(token, extensions);
+      try {
+        callbackHandler.handle(new Callback[] {extensionsCallback});
+      } catch (UnsupportedCallbackException e) {
+        // backwards compatibility - no extensions will be added
+      } catch (IOException e) {
+        handleCallbackError(e);
+      }
+      if (!extensionsCallback.invalidExtensions().isEmpty()) {
+        outcome = INVALID_EXTENSIONS;
+        String errorMessage = String.format("Authentication failed: %d extensions are invalid! They are: %s",
+            extensionsCallback.invalidExtensions().size(),
+            Utils.mkString(extensionsCallback.invalidExtensions(), "", "", ": ", "; "));
+        LOG.error(errorMessage);
+        throw new SaslAuthenticationException(errorMessage);
+      }
+      outcome = OAuthBearerJfr.SUCCESS;
+      return extensionsCallback.validatedExtensions();
+    } finally {
+      if (jfrEvent != null)
+        OAuthBearerExtensionsEvent.finish(jfrEvent, token.principalName(), extensions.map().size(), outcome);
     }
-    if (!extensionsCallback.invalidExtensions().isEmpty()) {
-      String errorMessage = String.format("Authentication failed: %d extensions are invalid! They are: %s",
-          extensionsCallback.invalidExtensions().size(),
-          Utils.mkString(extensionsCallback.invalidExtensions(), "", "", ": ", "; "));
-      LOG.error(errorMessage);
-      throw new SaslAuthenticationException(errorMessage);
-    }
-
-    return extensionsCallback.validatedExtensions();
   }
 }
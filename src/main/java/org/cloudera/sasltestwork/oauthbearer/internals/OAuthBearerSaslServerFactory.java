@@ -13,12 +13,27 @@ public class OAuthBearerSaslServerFactory implements SaslServerFactory {
     String[] mechanismNamesCompatibleWithPolicy = getMechanismNames(props);
     for (String s : mechanismNamesCompatibleWithPolicy) {
       if (s.equals(mechanism)) {
-        return new OAuthBearerSaslServer(cbh);
+        return new OAuthBearerSaslServer(cbh, maxResponseSize(props));
       }
     }
     return null;
   }
 
+  private static int maxResponseSize(Map<String, ?> props) throws SaslException {
+    Object value = props == null ? null : props.get(OAuthBearerSaslServer.MAX_RESPONSE_SIZE_PROP);
+    if (value == null)
+      return OAuthBearerClientInitialResponse.DEFAULT_MAX_SIZE;
+    try {
+      int maxResponseSize = Integer.parseInt(value.toString().trim());
+      if (maxResponseSize <= 0)
+        throw new SaslException(String.format("%s must be positive: %s",
+            OAuthBearerSaslServer.MAX_RESPONSE_SIZE_PROP, value));
+      return maxResponseSize;
+    } catch (NumberFormatException e) {
+      throw new SaslException(String.format("Invalid %s: %s", OAuthBearerSaslServer.MAX_RESPONSE_SIZE_PROP, value), e);
+    }
+  }
+
   @Override
   public String[] getMechanismNames(Map<String, ?> props) {
     return new String[] { OAuthBearerSaslServer.MECHANISM };
@@ -0,0 +1,157 @@
+package org.cloudera.sasltestwork.oauthbearer.internals;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and outcome metrics of one stage of OAUTHBEARER authentication.
+ * Every counter, including each latency histogram bucket, is a striped
+ * {@link LongAdder}, so concurrent handshakes recording into the same stage
+ * do not contend with each other; the cost is paid when the metrics are read.
+ */
+public class OAuthBearerStageMetrics implements OAuthBearerStageMetricsMXBean {
+  /**
+   * The reason under which failures are counted once {@link #MAX_FAILURE_REASONS}
+   * distinct reasons have been seen
+   */
+  public static final String OTHER_FAILURE_REASON = "other";
+  private static final int MAX_FAILURE_REASONS = 32;
+  // bucket i counts latencies in [2^(i-1), 2^i) ns; the last one also counts anything longer
+  private static final int BUCKETS = 40;
+
+  private final String name;
+  private final LongAdder successes = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final Map<String, LongAdder> failureReasons = new ConcurrentHashMap<>();
+  private final LongAdder totalLatencyNanos = new LongAdder();
+  private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+  private final LongAdder[] latencyBuckets = new LongAdder[BUCKETS];
+
+  OAuthBearerStageMetrics(String name) {
+    this.name = Objects.requireNonNull(name);
+    for (int i = 0; i < BUCKETS; i++)
+      latencyBuckets[i] = new LongAdder();
+  }
+
+  /**
+   * Return the (always non-null) name of the stage
+   *
+   * @return the (always non-null) name of the stage
+   */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * Record the outcome of one execution of this stage
+   *
+   * @param startNanos
+   *            the value of {@link System#nanoTime()} when the stage started
+   * @param failureReason
+   *            null if the stage succeeded, otherwise the reason it failed;
+   *            reasons must come from a small, fixed set
+   */
+  public void record(long startNanos, String failureReason) {
+    long latencyNanos = Math.max(0, System.nanoTime() - startNanos);
+    totalLatencyNanos.add(latencyNanos);
+    maxLatencyNanos.accumulate(latencyNanos);
+    latencyBuckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(latencyNanos))].increment();
+    if (failureReason == null) {
+      successes.increment();
+      return;
+    }
+    failures.increment();
+    LongAdder reasonCount = failureReasons.get(failureReason);
+    if (reasonCount == null)
+      reasonCount = failureReasons.computeIfAbsent(
+          failureReasons.size() < MAX_FAILURE_REASONS ? failureReason : OTHER_FAILURE_REASON, r -> new LongAdder());
+    reasonCount.increment();
+  }
+
+  @Override
+  public long getCount() {
+    return getSuccessCount() + getFailureCount();
+  }
+
+  @Override
+  public long getSuccessCount() {
+    return successes.sum();
+  }
+
+  @Override
+  public long getFailureCount() {
+    return failures.sum();
+  }
+
+  @Override
+  public Map<String, Long> getFailureReasons() {
+    Map<String, Long> snapshot = new TreeMap<>();
+    failureReasons.forEach((reason, count) -> snapshot.put(reason, count.sum()));
+    return snapshot;
+  }
+
+  @Override
+  public double getMeanLatencyNanos() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) totalLatencyNanos.sum() / count;
+  }
+
+  @Override
+  public long getMaxLatencyNanos() {
+    return maxLatencyNanos.get();
+  }
+
+  @Override
+  public long getLatencyP50Nanos() {
+    return latencyPercentileNanos(0.5);
+  }
+
+  @Override
+  public long getLatencyP90Nanos() {
+    return latencyPercentileNanos(0.9);
+  }
+
+  @Override
+  public long getLatencyP99Nanos() {
+    return latencyPercentileNanos(0.99);
+  }
+
+  @Override
+  public long getLatencyP999Nanos() {
+    return latencyPercentileNanos(0.999);
+  }
+
+  @Override
+  public void reset() {
+    successes.reset();
+    failures.reset();
+    failureReasons.clear();
+    totalLatencyNanos.reset();
+    maxLatencyNanos.reset();
+    for (LongAdder bucket : latencyBuckets)
+      bucket.reset();
+  }
+
+  private long latencyPercentileNanos(double percentile) {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = latencyBuckets[i].sum();
+      total += counts[i];
+    }
+    if (total == 0)
+      return 0;
+    long rank = (long) Math.ceil(percentile * total);
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      cumulative += counts[i];
+      if (cumulative >= rank)
+        return Math.min(i == 0 ? 0 : 1L << i, getMaxLatencyNanos());
+    }
+    return getMaxLatencyNanos();
+  }
+}
@@ -0,0 +1,39 @@
+package org.cloudera.sasltestwork.oauthbearer.internals;
+
+import java.util.Map;
+
+/**
+ * Management interface of the latency and outcome metrics of one stage of
+ * OAUTHBEARER authentication. Latency percentiles are estimated from a
+ * power-of-two histogram and report the upper bound of the bucket they fall
+ * in, so they are accurate to within a factor of two.
+ */
+public interface OAuthBearerStageMetricsMXBean {
+  long getCount();
+
+  long getSuccessCount();
+
+  long getFailureCount();
+
+  /**
+   * Return the number of failures grouped by reason
+   */
+  Map<String, Long> getFailureReasons();
+
+  double getMeanLatencyNanos();
+
+  long getMaxLatencyNanos();
+
+  long getLatencyP50Nanos();
+
+  long getLatencyP90Nanos();
+
+  long getLatencyP99Nanos();
+
+  long getLatencyP999Nanos();
+
+  /**
+   * Reset all counters and the latency histogram
+   */
+  void reset();
+}
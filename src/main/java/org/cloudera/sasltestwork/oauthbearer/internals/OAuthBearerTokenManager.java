@@ -0,0 +1,213 @@
+package org.cloudera.sasltestwork.oauthbearer.internals;
+
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerToken;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerTokenSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client-side holder of the current token from an {@link OAuthBearerTokenSource}.
+ * A background thread retrieves a new token once a configurable fraction of the
+ * current token's lifetime, plus random jitter, has passed, so tokens are
+ * replaced well before they expire and never while a connection is waiting,
+ * and many clients sharing a token issuer do not all refresh at the same time.
+ * If a refresh fails, the token source has no new token yet, or the token it
+ * returns has already expired, the current token is kept and the refresh is
+ * retried with exponential backoff, but never later than the current token's
+ * expiry.
+ * <p>
+ * The current token is published through a volatile field, so any number of
+ * concurrent SASL handshakes can read it without locking.
+ */
+public class OAuthBearerTokenManager implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(OAuthBearerTokenManager.class);
+
+  public static final double DEFAULT_REFRESH_WINDOW_FACTOR = 0.8;
+  public static final double DEFAULT_REFRESH_WINDOW_JITTER = 0.05;
+  private static final long MIN_REFRESH_DELAY_MS = 1000;
+  private static final long MAX_RETRY_BACKOFF_MS = TimeUnit.MINUTES.toMillis(5);
+
+  private final OAuthBearerTokenSource tokenSource;
+  private final double refreshWindowFactor;
+  private final double refreshWindowJitter;
+  private final ScheduledExecutorService refresher;
+  private volatile OAuthBearerToken token;
+  private volatile long nextRefreshTimeMs;
+  private final AtomicLong refreshes = new AtomicLong();
+  private final AtomicLong refreshFailures = new AtomicLong();
+  private long retryBackoffMs = MIN_REFRESH_DELAY_MS;
+  // the last token found to have expired, so that each expired token is only warned about once
+  private OAuthBearerToken expiredToken;
+
+  /**
+   * Constructor using the default refresh window factor and jitter
+   *
+   * @param tokenSource
+   *            the mandatory token source
+   * @throws IOException
+   *             if the initial token cannot be retrieved or has already expired
+   */
+  public OAuthBearerTokenManager(OAuthBearerTokenSource tokenSource) throws IOException {
+    this(tokenSource, DEFAULT_REFRESH_WINDOW_FACTOR, DEFAULT_REFRESH_WINDOW_JITTER);
+  }
+
+  /**
+   * Constructor. The initial token is retrieved synchronously.
+   *
+   * @param tokenSource
+   *            the mandatory token source
+   * @param refreshWindowFactor
+   *            the fraction of a token's lifetime after which it is refreshed;
+   *            must be between 0.5 and 1.0 (exclusive)
+   * @param refreshWindowJitter
+   *            the maximum random fraction of a token's lifetime added to the
+   *            refresh window factor; must be between 0 and 0.25, and the sum
+   *            must stay below 1.0
+   * @throws IOException
+   *             if the initial token cannot be retrieved or has already expired
+   */
+  public OAuthBearerTokenManager(OAuthBearerTokenSource tokenSource, double refreshWindowFactor,
+                                 double refreshWindowJitter) throws IOException {
+    if (refreshWindowFactor < 0.5 || refreshWindowFactor >= 1.0)
+      throw new IllegalArgumentException(
+          String.format("Refresh window factor must be between 0.5 and 1.0: %f", refreshWindowFactor));
+    if (refreshWindowJitter < 0 || refreshWindowJitter > 0.25 || refreshWindowFactor + refreshWindowJitter >= 1.0)
+      throw new IllegalArgumentException(
+          String.format("Refresh window jitter must be between 0 and 0.25 and leave the refresh before expiry: %f",
+              refreshWindowJitter));
+    this.tokenSource = Objects.requireNonNull(tokenSource);
+    this.refreshWindowFactor = refreshWindowFactor;
+    this.refreshWindowJitter = refreshWindowJitter;
+    this.token = retrieveToken(System.currentTimeMillis());
+    this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "oauthbearer-token-refresher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduleRefresh(refreshDelayMs(token, System.currentTimeMillis()));
+  }
+
+  /**
+   * Return the (always non-null) current token
+   *
+   * @return the (always non-null) current token
+   */
+  public OAuthBearerToken token() {
+    return token;
+  }
+
+  /**
+   * Return the time, in milliseconds since the epoch, at which the next refresh
+   * is scheduled
+   *
+   * @return the time of the next refresh
+   */
+  public long nextRefreshTimeMs() {
+    return nextRefreshTimeMs;
+  }
+
+  /**
+   * Return the number of successful refreshes, excluding the initial retrieval
+   *
+   * @return the number of successful refreshes
+   */
+  public long refreshes() {
+    return refreshes.get();
+  }
+
+  /**
+   * Return the number of failed refreshes, including those that returned an
+   * expired token
+   *
+   * @return the number of failed refreshes
+   */
+  public long refreshFailures() {
+    return refreshFailures.get();
+  }
+
+  @Override
+  public void close() {
+    refresher.shutdownNow();
+  }
+
+  private void refresh() {
+    long nowMs = System.currentTimeMillis();
+    long delayMs;
+    try {
+      OAuthBearerToken newToken = retrieveToken(nowMs);
+      // sources such as a sidecar-written file hand back the same token until a new one is issued
+      if (newToken == token) {
+        delayMs = retryDelayMs(nowMs);
+        LOG.debug("Token source has no new token yet for principal {}, retrying in {} ms",
+            newToken.principalName(), delayMs);
+      } else {
+        token = newToken;
+        refreshes.incrementAndGet();
+        retryBackoffMs = MIN_REFRESH_DELAY_MS;
+        delayMs = refreshDelayMs(newToken, nowMs);
+        LOG.info("Refreshed token for principal {}, valid until {}", newToken.principalName(), newToken.lifetimeMs());
+      }
+    } catch (IOException | RuntimeException e) {
+      refreshFailures.incrementAndGet();
+      delayMs = retryDelayMs(nowMs);
+      LOG.warn("Unable to refresh token, retrying in {} ms: {}", delayMs, e.getMessage());
+    }
+    scheduleRefresh(delayMs);
+  }
+
+  /**
+   * Return the delay before retrying to get a new token, doubling it for the
+   * next retry; the current token is retried at least once more before it
+   * expires
+   */
+  private long retryDelayMs(long nowMs) {
+    long untilExpiryMs = token.lifetimeMs() - nowMs;
+    if (untilExpiryMs <= 0)
+      warnIfExpired(token, nowMs);
+    long delayMs = untilExpiryMs > MIN_REFRESH_DELAY_MS
+        ? Math.min(retryBackoffMs, untilExpiryMs / 2)
+        : retryBackoffMs;
+    retryBackoffMs = Math.min(retryBackoffMs * 2, MAX_RETRY_BACKOFF_MS);
+    return delayMs;
+  }
+
+  private void warnIfExpired(OAuthBearerToken token, long nowMs) {
+    if (token.lifetimeMs() <= nowMs && token != expiredToken) {
+      expiredToken = token;
+      LOG.warn("Token for principal {} has already expired", token.principalName());
+    }
+  }
+
+  private OAuthBearerToken retrieveToken(long nowMs) throws IOException {
+    OAuthBearerToken token = Objects.requireNonNull(tokenSource.retrieveToken(), "Token source returned no token");
+    // an expired token would only be rejected by the server; the current one is no worse
+    if (token.lifetimeMs() <= nowMs)
+      throw new IOException(String.format("Token source returned a token for principal %s that expired at %d",
+          token.principalName(), token.lifetimeMs()));
+    return token;
+  }
+
+  private void scheduleRefresh(long delayMs) {
+    delayMs = Math.max(delayMs, MIN_REFRESH_DELAY_MS);
+    nextRefreshTimeMs = System.currentTimeMillis() + delayMs;
+    refresher.schedule(this::refresh, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  private long refreshDelayMs(OAuthBearerToken token, long nowMs) {
+    // only unexpired tokens are installed
+    long expiresAtMs = token.lifetimeMs();
+    long startMs = token.startTimeMs() != null && token.startTimeMs() < expiresAtMs ? token.startTimeMs() : nowMs;
+    double window = refreshWindowFactor + ThreadLocalRandom.current().nextDouble() * refreshWindowJitter;
+    long refreshAtMs = startMs + (long) ((expiresAtMs - startMs) * window);
+    return refreshAtMs - nowMs;
+  }
+}
@@ -0,0 +1,59 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Validation of the claims of a verified OAUTHBEARER token. Only use it when
+ * {@link OAuthBearerJfr#AVAILABLE} is true.
+ */
+@Name("org.cloudera.sasltestwork.oauthbearer.ClaimValidation")
+@Label("OAUTHBEARER Claim Validation")
+@Category({"SASL", OAuthBearerJfr.CATEGORY})
+@Description("Validation of the claims of a verified OAUTHBEARER token")
+@StackTrace(false)
+public class OAuthBearerClaimValidationEvent extends Event {
+  @Label("Principal")
+  String principal;
+
+  @Label("Outcome")
+  String outcome;
+
+  /**
+   * Start a new event
+   *
+   * @return the started event, or null if JFR is not recording this event
+   */
+  public static Object start() {
+    OAuthBearerClaimValidationEvent event = new OAuthBearerClaimValidationEvent();
+    if (!event.isEnabled())
+      return null;
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End the given event and commit it with the given values, if JFR is still
+   * recording it
+   *
+   * @param event
+   *            the mandatory event returned by {@link #start()}
+   * @param principal
+   *            the principal named by the token, if known
+   * @param outcome
+   *            the mandatory outcome
+   */
+  public static void finish(Object event, String principal, String outcome) {
+    OAuthBearerClaimValidationEvent claimsEvent = (OAuthBearerClaimValidationEvent) event;
+    claimsEvent.end();
+    if (claimsEvent.shouldCommit()) {
+      claimsEvent.principal = principal;
+      claimsEvent.outcome = outcome;
+      claimsEvent.commit();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Retrieval of the token and extensions and encoding of an OAUTHBEARER client
+ * initial response. Only use it when {@link OAuthBearerJfr#AVAILABLE} is true.
+ */
+@Name("org.cloudera.sasltestwork.oauthbearer.ClientInitialResponse")
+@Label("OAUTHBEARER Client Initial Response")
+@Category({"SASL", OAuthBearerJfr.CATEGORY})
+@Description("Retrieval of the token and extensions and encoding of an OAUTHBEARER client initial response")
+@StackTrace(false)
+public class OAuthBearerClientInitialResponseEvent extends Event {
+  @Label("Principal")
+  String principal;
+
+  @Label("Response Size")
+  @Description("Size of the client initial response in bytes")
+  int responseSize;
+
+  @Label("Outcome")
+  String outcome;
+
+  /**
+   * Start a new event
+   *
+   * @return the started event, or null if JFR is not recording this event
+   */
+  public static Object start() {
+    OAuthBearerClientInitialResponseEvent event = new OAuthBearerClientInitialResponseEvent();
+    if (!event.isEnabled())
+      return null;
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End the given event and commit it with the given values, if JFR is still
+   * recording it
+   *
+   * @param event
+   *            the mandatory event returned by {@link #start()}
+   * @param principal
+   *            the principal named by the token, if known
+   * @param responseSize
+   *            the size of the client initial response in bytes
+   * @param outcome
+   *            the mandatory outcome
+   */
+  public static void finish(Object event, String principal, int responseSize, String outcome) {
+    OAuthBearerClientInitialResponseEvent responseEvent = (OAuthBearerClientInitialResponseEvent) event;
+    responseEvent.end();
+    if (responseEvent.shouldCommit()) {
+      responseEvent.principal = principal;
+      responseEvent.responseSize = responseSize;
+      responseEvent.outcome = outcome;
+      responseEvent.commit();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Processing of the SASL extensions of an OAUTHBEARER exchange. Only use it
+ * when {@link OAuthBearerJfr#AVAILABLE} is true.
+ */
+@Name("org.cloudera.sasltestwork.oauthbearer.Extensions")
+@Label("OAUTHBEARER Extensions")
+@Category({"SASL", OAuthBearerJfr.CATEGORY})
+@Description("Processing of the SASL extensions of an OAUTHBEARER exchange")
+@StackTrace(false)
+public class OAuthBearerExtensionsEvent extends Event {
+  @Label("Principal")
+  String principal;
+
+  @Label("Extension Count")
+  int extensionCount;
+
+  @Label("Outcome")
+  String outcome;
+
+  /**
+   * Start a new event
+   *
+   * @return the started event, or null if JFR is not recording this event
+   */
+  public static Object start() {
+    OAuthBearerExtensionsEvent event = new OAuthBearerExtensionsEvent();
+    if (!event.isEnabled())
+      return null;
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End the given event and commit it with the given values, if JFR is still
+   * recording it
+   *
+   * @param event
+   *            the mandatory event returned by {@link #start()}
+   * @param principal
+   *            the authenticated principal, if known
+   * @param extensionCount
+   *            the number of extensions processed
+   * @param outcome
+   *            the mandatory outcome
+   */
+  public static void finish(Object event, String principal, int extensionCount, String outcome) {
+    OAuthBearerExtensionsEvent extensionsEvent = (OAuthBearerExtensionsEvent) event;
+    extensionsEvent.end();
+    if (extensionsEvent.shouldCommit()) {
+      extensionsEvent.principal = principal;
+      extensionsEvent.extensionCount = extensionCount;
+      extensionsEvent.outcome = outcome;
+      extensionsEvent.commit();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.jfr;
+
+/**
+ * Guard for the Java Flight Recorder events of OAUTHBEARER authentication.
+ * <p>
+ * The event classes extend {@code jdk.jfr.Event}, which older Java 8 runtimes
+ * do not have, so they must only be touched when {@link #AVAILABLE} is true.
+ * Every event class offers a static {@code start} method returning the started
+ * event, or null if JFR is not recording it, and a static {@code finish} method
+ * that commits it; callers hold the event as an {@code Object}:
+ *
+ * <pre>
+ * Object event = OAuthBearerJfr.AVAILABLE ? OAuthBearerParseEvent.start() : null;
+ * ...
+ * if (event != null)
+ *   OAuthBearerParseEvent.finish(event, responseSize, outcome);
+ * </pre>
+ *
+ * When JFR is not recording an event, {@code start} allocates nothing once
+ * compiled, and event fields are never computed.
+ */
+public final class OAuthBearerJfr {
+  /**
+   * True if the JFR event API is available in this JVM
+   */
+  public static final boolean AVAILABLE = available();
+
+  /**
+   * The outcome recorded for a stage that succeeded
+   */
+  public static final String SUCCESS = "success";
+
+  static final String CATEGORY = "OAUTHBEARER";
+
+  private static boolean available() {
+    try {
+      Class.forName("jdk.jfr.Event", false, OAuthBearerJfr.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  private OAuthBearerJfr() {
+    // empty
+  }
+}
@@ -0,0 +1,65 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Lookup of the keys that may have signed an OAUTHBEARER token. Only use it
+ * when {@link OAuthBearerJfr#AVAILABLE} is true.
+ */
+@Name("org.cloudera.sasltestwork.oauthbearer.KeyLookup")
+@Label("OAUTHBEARER Key Lookup")
+@Category({"SASL", OAuthBearerJfr.CATEGORY})
+@Description("Lookup of the keys that may have signed an OAUTHBEARER token")
+@StackTrace(false)
+public class OAuthBearerKeyLookupEvent extends Event {
+  @Label("Key ID")
+  String keyId;
+
+  @Label("Algorithm")
+  String algorithm;
+
+  @Label("Outcome")
+  String outcome;
+
+  /**
+   * Start a new event
+   *
+   * @return the started event, or null if JFR is not recording this event
+   */
+  public static Object start() {
+    OAuthBearerKeyLookupEvent event = new OAuthBearerKeyLookupEvent();
+    if (!event.isEnabled())
+      return null;
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End the given event and commit it with the given values, if JFR is still
+   * recording it
+   *
+   * @param event
+   *            the mandatory event returned by {@link #start()}
+   * @param keyId
+   *            the key ID named by the token, if any
+   * @param algorithm
+   *            the mandatory signature algorithm of the token
+   * @param outcome
+   *            the mandatory outcome
+   */
+  public static void finish(Object event, String keyId, String algorithm, String outcome) {
+    OAuthBearerKeyLookupEvent lookupEvent = (OAuthBearerKeyLookupEvent) event;
+    lookupEvent.end();
+    if (lookupEvent.shouldCommit()) {
+      lookupEvent.keyId = keyId;
+      lookupEvent.algorithm = algorithm;
+      lookupEvent.outcome = outcome;
+      lookupEvent.commit();
+    }
+  }
+}
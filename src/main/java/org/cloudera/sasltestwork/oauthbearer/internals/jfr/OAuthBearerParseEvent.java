@@ -0,0 +1,60 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Parsing of an OAUTHBEARER client initial response on the server. Only use it
+ * when {@link OAuthBearerJfr#AVAILABLE} is true.
+ */
+@Name("org.cloudera.sasltestwork.oauthbearer.Parse")
+@Label("OAUTHBEARER Parse")
+@Category({"SASL", OAuthBearerJfr.CATEGORY})
+@Description("Parsing of an OAUTHBEARER client initial response on the server")
+@StackTrace(false)
+public class OAuthBearerParseEvent extends Event {
+  @Label("Response Size")
+  @Description("Size of the client initial response in bytes")
+  int responseSize;
+
+  @Label("Outcome")
+  String outcome;
+
+  /**
+   * Start a new event
+   *
+   * @return the started event, or null if JFR is not recording this event
+   */
+  public static Object start() {
+    OAuthBearerParseEvent event = new OAuthBearerParseEvent();
+    if (!event.isEnabled())
+      return null;
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End the given event and commit it with the given values, if JFR is still
+   * recording it
+   *
+   * @param event
+   *            the mandatory event returned by {@link #start()}
+   * @param responseSize
+   *            the size of the client initial response in bytes
+   * @param outcome
+   *            the mandatory outcome
+   */
+  public static void finish(Object event, int responseSize, String outcome) {
+    OAuthBearerParseEvent parseEvent = (OAuthBearerParseEvent) event;
+    parseEvent.end();
+    if (parseEvent.shouldCommit()) {
+      parseEvent.responseSize = responseSize;
+      parseEvent.outcome = outcome;
+      parseEvent.commit();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Verification of the signature of an OAUTHBEARER token. Only use it when
+ * {@link OAuthBearerJfr#AVAILABLE} is true.
+ */
+@Name("org.cloudera.sasltestwork.oauthbearer.SignatureVerify")
+@Label("OAUTHBEARER Signature Verify")
+@Category({"SASL", OAuthBearerJfr.CATEGORY})
+@Description("Verification of the signature of an OAUTHBEARER token")
+@StackTrace(false)
+public class OAuthBearerSignatureVerifyEvent extends Event {
+  @Label("Key ID")
+  String keyId;
+
+  @Label("Algorithm")
+  String algorithm;
+
+  @Label("Outcome")
+  String outcome;
+
+  /**
+   * Start a new event
+   *
+   * @return the started event, or null if JFR is not recording this event
+   */
+  public static Object start() {
+    OAuthBearerSignatureVerifyEvent event = new OAuthBearerSignatureVerifyEvent();
+    if (!event.isEnabled())
+      return null;
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End the given event and commit it with the given values, if JFR is still
+   * recording it
+   *
+   * @param event
+   *            the mandatory event returned by {@link #start()}
+   * @param keyId
+   *            the key ID named by the token, if any
+   * @param algorithm
+   *            the mandatory signature algorithm of the token
+   * @param outcome
+   *            the mandatory outcome
+   */
+  public static void finish(Object event, String keyId, String algorithm, String outcome) {
+    OAuthBearerSignatureVerifyEvent verifyEvent = (OAuthBearerSignatureVerifyEvent) event;
+    verifyEvent.end();
+    if (verifyEvent.shouldCommit()) {
+      verifyEvent.keyId = keyId;
+      verifyEvent.algorithm = algorithm;
+      verifyEvent.outcome = outcome;
+      verifyEvent.commit();
+    }
+  }
+}
@@ -1,16 +1,30 @@
 package org.cloudera.sasltestwork.oauthbearer.internals.knox;
 
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.util.Base64URL;
+
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
 
 public class CertificateUtil {
   private static final String PEM_HEADER = "-----BEGIN CERTIFICATE-----\n";
   private static final String PEM_FOOTER = "\n-----END CERTIFICATE-----";
+  // the X.509 SubjectPublicKeyInfo encoding of an Ed25519 key is this prefix followed by the 32 byte key
+  private static final byte[] ED25519_KEY_INFO_PREFIX =
+      {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00};
+  private static final int ED25519_KEY_LENGTH = 32;
 
   /**
    * Gets an RSAPublicKey from the provided PEM encoding.
@@ -18,18 +32,65 @@ public class CertificateUtil {
    * @param pem
    *          - the pem encoding from config without the header and footer
    * @return RSAPublicKey the RSA public key
-   * @throws CertificateException thrown if a processing error occurred
+   * @throws CertificateException thrown if a processing error occurred, or if
+   *           the certificate's key is not an RSA key
    */
   public static RSAPublicKey parseRSAPublicKey(String pem) throws CertificateException {
+    PublicKey key = parsePublicKey(pem);
+    if (!(key instanceof RSAPublicKey))
+      throw new CertificateException(String.format("Not an RSA public key: %s", key.getAlgorithm()));
+    return (RSAPublicKey) key;
+  }
+
+  /**
+   * Gets the public key, of any algorithm, from the provided PEM encoding.
+   *
+   * @param pem
+   *          - the pem encoding from config without the header and footer
+   * @return PublicKey the public key
+   * @throws CertificateException thrown if a processing error occurred
+   */
+  public static PublicKey parsePublicKey(String pem) throws CertificateException {
     String fullPem = PEM_HEADER + pem + PEM_FOOTER;
-    PublicKey key = null;
     CertificateFactory fact = CertificateFactory.getInstance("X.509");
 
     ByteArrayInputStream is = new ByteArrayInputStream(
         fullPem.getBytes(StandardCharsets.UTF_8));
 
     X509Certificate cer = (X509Certificate) fact.generateCertificate(is);
-    key = cer.getPublicKey();
-    return (RSAPublicKey) key;
+    return cer.getPublicKey();
+  }
+
+  /**
+   * Gets a signature verification JWK from the provided PEM encoding. RSA, EC
+   * (P-256, P-384 and P-521) and Ed25519 keys are supported.
+   *
+   * @param pem
+   *          - the pem encoding from config without the header and footer
+   * @param keyId
+   *          - the optional key ID to give the JWK
+   * @return JWK the public JWK
+   * @throws CertificateException thrown if a processing error occurred, or if
+   *           the certificate's key is of an unsupported type
+   */
+  public static JWK parseJWK(String pem, String keyId) throws CertificateException {
+    PublicKey key = parsePublicKey(pem);
+    if (key instanceof RSAPublicKey)
+      return new RSAKey.Builder((RSAPublicKey) key).keyUse(KeyUse.SIGNATURE).keyID(keyId).build();
+    if (key instanceof ECPublicKey) {
+      Curve curve = Curve.forECParameterSpec(((ECPublicKey) key).getParams());
+      if (curve == null)
+        throw new CertificateException("Unsupported elliptic curve");
+      return new ECKey.Builder(curve, (ECPublicKey) key).keyUse(KeyUse.SIGNATURE).keyID(keyId).build();
+    }
+    // Ed25519 keys have no Java 8 interface; they are recognised by their encoding
+    byte[] encoded = key.getEncoded();
+    if (encoded != null && encoded.length == ED25519_KEY_INFO_PREFIX.length + ED25519_KEY_LENGTH
+        && Arrays.equals(Arrays.copyOf(encoded, ED25519_KEY_INFO_PREFIX.length), ED25519_KEY_INFO_PREFIX)) {
+      byte[] x = Arrays.copyOfRange(encoded, ED25519_KEY_INFO_PREFIX.length, encoded.length);
+      return new OctetKeyPair.Builder(Curve.Ed25519, Base64URL.encode(x)).keyUse(KeyUse.SIGNATURE).keyID(keyId)
+          .build();
+    }
+    throw new CertificateException(String.format("Unsupported public key algorithm: %s", key.getAlgorithm()));
   }
 }
@@ -0,0 +1,108 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import org.cloudera.sasltestwork.Utils;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Screens a token's claims before its signature is verified, so that tokens
+ * which are plainly unacceptable, e.g. expired ones replayed by stale clients,
+ * are rejected without paying for a signature verification. Only the payload
+ * is decoded, and the checks run cheapest first.
+ * <p>
+ * Screening only ever rejects: its checks are the same as, or more lenient
+ * than, those applied after verification, and a token that passes is still
+ * fully verified and validated. The claims it reads are unverified, so a
+ * rejection can at worst be caused by a forged token that would have been
+ * rejected anyway.
+ */
+public class OAuthBearerClaimScreener {
+  private static final OAuthBearerValidationResult MALFORMED_JWT =
+      OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.MALFORMED, "JWT does not have 3 sections");
+  private static final OAuthBearerValidationResult NO_EXPIRATION_TIME =
+      OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.MISSING_CLAIM, "No expiration time in JWT");
+
+  private final String principalClaimName;
+  private final String scopeClaimName;
+  private final Set<String> requiredScope;
+  private final int allowableClockSkewMs;
+
+  /**
+   * Constructor
+   *
+   * @param config
+   *            the mandatory validation settings whose checks are to be applied
+   *            early
+   */
+  public OAuthBearerClaimScreener(OAuthBearerValidatorConfig config) {
+    Objects.requireNonNull(config);
+    this.principalClaimName = config.principalClaimName();
+    this.scopeClaimName = config.scopeClaimName();
+    this.requiredScope = config.requiredScope();
+    this.allowableClockSkewMs = config.allowableClockSkewMs();
+  }
+
+  /**
+   * Screen the claims of the given token
+   *
+   * @param compactSerialization
+   *            the mandatory compact serialization of the token
+   * @param whenCheckTimeMs
+   *            the time relative to which the expiration and issued at times
+   *            are checked
+   * @return a failure if the token is certain to be rejected, otherwise success;
+   *         success does not mean the token is valid
+   */
+  public OAuthBearerValidationResult screen(String compactSerialization, long whenCheckTimeMs) {
+    int payloadStart = compactSerialization.indexOf('.') + 1;
+    int payloadEnd = payloadStart == 0 ? -1 : compactSerialization.indexOf('.', payloadStart);
+    if (payloadEnd < 0)
+      return MALFORMED_JWT;
+    Map<String, Object> claims;
+    try {
+      claims = OAuthBearerSignedJwt.toMap(compactSerialization.substring(payloadStart, payloadEnd));
+    } catch (OAuthBearerIllegalTokenException e) {
+      return e.reason();
+    }
+
+    Object expirationTime = claims.get("exp");
+    if (!(expirationTime instanceof Number))
+      return expirationTime == null
+          ? NO_EXPIRATION_TIME
+          : OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.INVALID_CLAIM_TYPE,
+              "The 'exp' claim was not of type Number: %s", expirationTime.getClass().getSimpleName());
+    // times are truncated to whole seconds, as the verifier reads them, so that no token it accepts is rejected here
+    long expirationTimeSeconds = ((Number) expirationTime).longValue();
+    if (whenCheckTimeMs - allowableClockSkewMs >= 1000 * expirationTimeSeconds)
+      return OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.EXPIRED,
+          "The indicated time (%d ms) minus allowable clock skew (%d ms) was on or after the Expiration Time value "
+              + "(%d seconds)", whenCheckTimeMs, allowableClockSkewMs, expirationTimeSeconds);
+
+    Object issuedAt = claims.get("iat");
+    if (issuedAt instanceof Number) {
+      long issuedAtSeconds = ((Number) issuedAt).longValue();
+      if (1000 * issuedAtSeconds > whenCheckTimeMs + allowableClockSkewMs)
+        return OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.NOT_YET_VALID,
+            "The Issued At value (%d seconds) was after the indicated time (%d ms) plus allowable clock skew (%d ms)",
+            issuedAtSeconds, whenCheckTimeMs, allowableClockSkewMs);
+    }
+
+    Object principalName = claims.get(principalClaimName);
+    if (!(principalName instanceof String) || Utils.isBlank((String) principalName))
+      return OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.MISSING_CLAIM,
+          "No principal name in JWT claim: %s", principalClaimName);
+
+    if (requiredScope.isEmpty())
+      return OAuthBearerValidationResult.newSuccess();
+    Set<String> tokenScope = OAuthBearerScopeUtils.scopeOfClaim(claims.get(scopeClaimName));
+    for (String requiredScopeElement : requiredScope) {
+      if (!tokenScope.contains(requiredScopeElement))
+        return OAuthBearerValidationResult.newScopeFailure(requiredScope.toString(),
+            "The provided scope (%s) was missing a required scope (%s).  All required scope elements: %s",
+            tokenScope, requiredScopeElement, requiredScope);
+    }
+    return OAuthBearerValidationResult.newSuccess();
+  }
+}
@@ -0,0 +1,64 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+/**
+ * Why a token was rejected. Codes are cheap to compare and to count, unlike
+ * failure descriptions, and are what metrics and flight recorder events report.
+ */
+public enum OAuthBearerFailureCode {
+  /**
+   * The token is not a well-formed JWT
+   */
+  MALFORMED("malformed"),
+  /**
+   * The token's signature or standard claims could not be verified
+   */
+  VERIFICATION_FAILED("verification_failed"),
+  /**
+   * A required claim is missing
+   */
+  MISSING_CLAIM("missing_claim"),
+  /**
+   * A claim has the wrong type
+   */
+  INVALID_CLAIM_TYPE("invalid_claim_type"),
+  /**
+   * The token was issued after the time of the check
+   */
+  NOT_YET_VALID("not_yet_valid"),
+  /**
+   * The token has expired
+   */
+  EXPIRED("expired"),
+  /**
+   * The token expires before it was issued
+   */
+  INCONSISTENT_TIMES("inconsistent_times"),
+  /**
+   * The token lacks a required scope
+   */
+  INSUFFICIENT_SCOPE("insufficient_scope"),
+  /**
+   * The token's issuer is not trusted
+   */
+  UNKNOWN_ISSUER("unknown_issuer"),
+  /**
+   * Any other reason
+   */
+  OTHER("other");
+
+  private final String reason;
+
+  OAuthBearerFailureCode(String reason) {
+    this.reason = reason;
+  }
+
+  /**
+   * Return the (always non-null) short, lower-case name of this code as
+   * reported in metrics and events
+   *
+   * @return the (always non-null) short name of this code
+   */
+  public String reason() {
+    return reason;
+  }
+}
@@ -0,0 +1,138 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.JWTParser;
+import org.cloudera.sasltestwork.Utils;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerToken;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerTokenSource;
+import org.cloudera.sasltestwork.oauthbearer.internals.BasicOAuthBearerToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Token source reading a JWT from a local file, such as the one a Knox sidecar
+ * keeps up to date. The file is read and parsed only when its modification time
+ * or size has changed since the last read; otherwise the previously built token
+ * is returned, so polling the file costs a single {@code stat}.
+ * <p>
+ * The token's expiry, issue time, principal and scope are taken from its
+ * claims. The signature is not verified: the token is only passed on to the
+ * server, which does that.
+ */
+public class OAuthBearerFileTokenSource implements OAuthBearerTokenSource {
+  private static final Logger LOG = LoggerFactory.getLogger(OAuthBearerFileTokenSource.class);
+  private static final String DEFAULT_PRINCIPAL_CLAIM_NAME = "sub";
+  private static final String DEFAULT_SCOPE_CLAIM_NAME = "scope";
+  private static final int MAX_TOKEN_BYTES = 64 * 1024;
+
+  private final Path file;
+  private final String principalClaimName;
+  private final String scopeClaimName;
+  private FileTime lastModifiedTime;
+  private long lastSize = -1;
+  private OAuthBearerToken token;
+  private long reads;
+
+  /**
+   * Constructor using the {@code sub} and {@code scope} claims
+   *
+   * @param file
+   *            the mandatory file the token is written to
+   */
+  public OAuthBearerFileTokenSource(Path file) {
+    this(file, DEFAULT_PRINCIPAL_CLAIM_NAME, DEFAULT_SCOPE_CLAIM_NAME);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param file
+   *            the mandatory file the token is written to
+   * @param principalClaimName
+   *            the mandatory name of the claim holding the principal name
+   * @param scopeClaimName
+   *            the mandatory name of the claim holding the scope
+   */
+  public OAuthBearerFileTokenSource(Path file, String principalClaimName, String scopeClaimName) {
+    this.file = Objects.requireNonNull(file);
+    this.principalClaimName = Objects.requireNonNull(principalClaimName);
+    this.scopeClaimName = Objects.requireNonNull(scopeClaimName);
+  }
+
+  @Override
+  public synchronized OAuthBearerToken retrieveToken() throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    if (token != null && attributes.lastModifiedTime().equals(lastModifiedTime) && attributes.size() == lastSize)
+      return token;
+    String value = read();
+    OAuthBearerToken newToken = token != null && token.value().equals(value) ? token : parse(value);
+    token = newToken;
+    lastModifiedTime = attributes.lastModifiedTime();
+    lastSize = attributes.size();
+    reads++;
+    LOG.debug("Read token from {}: {}", file, newToken);
+    return newToken;
+  }
+
+  /**
+   * Return the number of times the file was read because it had changed
+   *
+   * @return the number of times the file was read
+   */
+  public synchronized long reads() {
+    return reads;
+  }
+
+  private String read() throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > MAX_TOKEN_BYTES)
+        throw new IOException(String.format("Token file %s is too large: %d bytes", file, size));
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // keep reading until the buffer is full or the file ends
+      }
+      buffer.flip();
+      String value = StandardCharsets.US_ASCII.decode(buffer).toString().trim();
+      if (value.isEmpty())
+        throw new IOException(String.format("Token file %s is empty", file));
+      return value;
+    }
+  }
+
+  private OAuthBearerToken parse(String value) throws IOException {
+    JWTClaimsSet claims;
+    String principalName;
+    Set<String> scope;
+    try {
+      claims = JWTParser.parse(value).getJWTClaimsSet();
+      principalName = claims.getStringClaim(principalClaimName);
+      // read as the server reads it, so that the scope the client sees is the one it is authorized for
+      scope = OAuthBearerScopeUtils.scopeOfClaim(claims.getClaim(scopeClaimName));
+    } catch (ParseException e) {
+      throw new IOException(String.format("Token file %s does not hold a valid JWT: %s", file, e.getMessage()), e);
+    }
+    Date expirationTime = claims.getExpirationTime();
+    if (expirationTime == null)
+      throw new IOException(String.format("Token in %s has no expiration time", file));
+    if (Utils.isBlank(principalName))
+      throw new IOException(String.format("Token in %s has no principal name in claim %s", file, principalClaimName));
+    Date issueTime = claims.getIssueTime();
+    return new BasicOAuthBearerToken(value, scope, expirationTime.getTime(), principalName,
+        issueTime == null ? null : issueTime.getTime());
+  }
+}
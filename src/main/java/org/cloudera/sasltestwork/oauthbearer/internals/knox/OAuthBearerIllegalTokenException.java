@@ -2,6 +2,12 @@ package org.cloudera.sasltestwork.oauthbearer.internals.knox;
 
 import java.util.Objects;
 
+/**
+ * Thrown when a token is rejected. Instances carry no stack trace, since
+ * rejecting tokens is routine and the reason tells where the token failed; a
+ * cause, if any, keeps its own. The message is the reason's description, which
+ * is only formatted when it is asked for.
+ */
 public class OAuthBearerIllegalTokenException extends RuntimeException {
   private static final long serialVersionUID = -5275276640051316350L;
   private final OAuthBearerValidationResult reason;
@@ -14,19 +20,21 @@ public class OAuthBearerIllegalTokenException extends RuntimeException {
    *            failure
    */
   public OAuthBearerIllegalTokenException(OAuthBearerValidationResult reason) {
-    super(Objects.requireNonNull(reason).failureDescription());
-    if (reason.success())
-      throw new IllegalArgumentException("The reason indicates success; it must instead indicate failure");
-    this.reason = reason;
+    this(reason, null);
   }
 
   public OAuthBearerIllegalTokenException(OAuthBearerValidationResult reason, Throwable t) {
-    super(Objects.requireNonNull(reason).failureDescription(), t);
-    if (reason.success())
+    super(null, t, false, false);
+    if (Objects.requireNonNull(reason).success())
       throw new IllegalArgumentException("The reason indicates success; it must instead indicate failure");
     this.reason = reason;
   }
 
+  @Override
+  public String getMessage() {
+    return reason.failureDescription();
+  }
+
   /**
    * Return the (always non-null) reason for the validation failure
    *
@@ -0,0 +1,109 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A trusted token issuer: the value of the {@code iss} claim of the tokens it
+ * issues, the source of its signing keys, and the JAAS-style
+ * {@code signedJwtValidator*} options that apply to its tokens only, e.g. its
+ * principal claim name or required scope. Options not given here are taken
+ * from the JAAS configuration of the callback handler. The asynchronous
+ * validation executor is shared by all issuers, so its
+ * {@code signedJwtValidatorAsyncThreads} and
+ * {@code signedJwtValidatorAsyncQueueSize} options can only be given there.
+ */
+public class OAuthBearerIssuer {
+  private static final List<String> SHARED_OPTIONS = Arrays.asList(
+      OAuthBearerValidatorConfig.ASYNC_THREADS_OPTION, OAuthBearerValidatorConfig.ASYNC_QUEUE_SIZE_OPTION);
+
+  private final String issuer;
+  private final OAuthBearerKeySource keySource;
+  private final Map<String, String> options;
+
+  /**
+   * Constructor for an issuer configured by the JAAS options alone
+   *
+   * @param issuer
+   *            the mandatory {@code iss} claim value
+   * @param keySource
+   *            the mandatory source of the issuer's signing keys
+   */
+  public OAuthBearerIssuer(String issuer, OAuthBearerKeySource keySource) {
+    this(issuer, keySource, Collections.emptyMap());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param issuer
+   *            the mandatory {@code iss} claim value
+   * @param keySource
+   *            the mandatory source of the issuer's signing keys
+   * @param options
+   *            the mandatory, potentially empty, options overriding the JAAS
+   *            options for this issuer's tokens
+   * @throws IllegalArgumentException
+   *             if the options size the shared asynchronous validation executor
+   */
+  public OAuthBearerIssuer(String issuer, OAuthBearerKeySource keySource, Map<String, String> options) {
+    this.issuer = Objects.requireNonNull(issuer);
+    this.keySource = Objects.requireNonNull(keySource);
+    for (String sharedOption : SHARED_OPTIONS) {
+      if (Objects.requireNonNull(options).containsKey(sharedOption))
+        throw new IllegalArgumentException(String.format(
+            "%s applies to all issuers and cannot be overridden for issuer %s", sharedOption, issuer));
+    }
+    this.options = Collections.unmodifiableMap(new HashMap<>(options));
+  }
+
+  /**
+   * Return the (always non-null) {@code iss} claim value of the issuer's tokens
+   *
+   * @return the (always non-null) {@code iss} claim value
+   */
+  public String issuer() {
+    return issuer;
+  }
+
+  /**
+   * Return the (always non-null) source of the issuer's signing keys
+   *
+   * @return the (always non-null) source of the issuer's signing keys
+   */
+  public OAuthBearerKeySource keySource() {
+    return keySource;
+  }
+
+  /**
+   * Return the (always non-null, potentially empty) options overriding the
+   * JAAS options for this issuer's tokens
+   *
+   * @return the (always non-null) issuer-specific options
+   */
+  public Map<String, String> options() {
+    return options;
+  }
+
+  /**
+   * Return the given JAAS options overridden by this issuer's options
+   *
+   * @param moduleOptions
+   *            the mandatory JAAS options
+   * @return the (always non-null) options applying to this issuer's tokens
+   */
+  public Map<String, String> options(Map<String, String> moduleOptions) {
+    Map<String, String> merged = new HashMap<>(moduleOptions);
+    merged.putAll(options);
+    return merged;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("OAuthBearerIssuer[issuer=%s, options=%s]", issuer, options);
+  }
+}
@@ -0,0 +1,170 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.text.ParseException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Key source backed by a JWKS file that is reloaded whenever the file changes.
+ * A background thread watches the file's directory, parses the new key set and
+ * builds its verifier off the authentication path, then publishes it with a
+ * single volatile write (copy-on-write): validations in flight keep using the
+ * verifier they started with and never block on a reload. If the new file
+ * cannot be parsed the previous key set stays in effect, and if it holds the
+ * same key set, as after a touch or one of the several modification events of a
+ * single save, the current verifier is kept.
+ */
+public class OAuthBearerJwksFileWatcher implements OAuthBearerKeySource, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(OAuthBearerJwksFileWatcher.class);
+
+  private final Path jwksFile;
+  private final WatchService watchService;
+  private final Thread watcherThread;
+  private volatile OAuthBearerSignedJwtVerifier verifier;
+  private final AtomicLong version = new AtomicLong();
+  private final AtomicLong reloadFailures = new AtomicLong();
+  private volatile long lastReloadTimeMs;
+  private volatile long lastReloadDurationMs;
+  private volatile boolean closed = false;
+
+  /**
+   * Load the given JWKS file and start watching it for changes
+   *
+   * @param jwksFile
+   *            the mandatory JWKS file
+   * @throws IOException
+   *             if the file cannot be read or watched
+   * @throws ParseException
+   *             if the file is not a valid JWK set
+   */
+  public OAuthBearerJwksFileWatcher(Path jwksFile) throws IOException, ParseException {
+    this.jwksFile = Objects.requireNonNull(jwksFile).toAbsolutePath();
+    load();
+    this.watchService = this.jwksFile.getFileSystem().newWatchService();
+    this.jwksFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    this.watcherThread = new Thread(this::watch, "oauthbearer-jwks-watcher-" + this.jwksFile.getFileName());
+    this.watcherThread.setDaemon(true);
+    this.watcherThread.start();
+  }
+
+  @Override
+  public OAuthBearerSignedJwtVerifier verifier() {
+    return verifier;
+  }
+
+  /**
+   * Return the number of times a changed key set has been loaded, starting at 1
+   * for the initial load
+   *
+   * @return the key set version
+   */
+  public long version() {
+    return version.get();
+  }
+
+  /**
+   * Return the time, in milliseconds since the epoch, of the last successful
+   * load
+   *
+   * @return the time of the last successful load
+   */
+  public long lastReloadTimeMs() {
+    return lastReloadTimeMs;
+  }
+
+  /**
+   * Return how long the last successful load took, including building the
+   * verifier
+   *
+   * @return the duration of the last successful load in milliseconds
+   */
+  public long lastReloadDurationMs() {
+    return lastReloadDurationMs;
+  }
+
+  /**
+   * Return the number of reloads that failed and left the previous key set in
+   * effect
+   *
+   * @return the number of failed reloads
+   */
+  public long reloadFailures() {
+    return reloadFailures.get();
+  }
+
+  /**
+   * Reload the file now. Failures are logged and counted; the previous key set
+   * then stays in effect. A file holding the current key set leaves the
+   * verifier and version unchanged.
+   *
+   * @return true if the file was loaded, otherwise false
+   */
+  public boolean reload() {
+    try {
+      if (load())
+        LOG.info("Reloaded JWKS file {} (version {})", jwksFile, version());
+      else
+        LOG.debug("JWKS file {} is unchanged (version {})", jwksFile, version());
+      return true;
+    } catch (IOException | ParseException | RuntimeException e) {
+      reloadFailures.incrementAndGet();
+      LOG.warn("Unable to reload JWKS file {}, keeping version {}: {}", jwksFile, version(), e.getMessage());
+      return false;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    watchService.close();
+  }
+
+  private synchronized boolean load() throws IOException, ParseException {
+    long startMs = System.currentTimeMillis();
+    JWKSet jwkSet = JWKSet.load(jwksFile.toFile());
+    OAuthBearerSignedJwtVerifier current = verifier;
+    // keep the current verifier when nothing changed, so caches keyed on it stay valid
+    boolean changed = current == null || !current.jwkSet().toJSONObject(false).equals(jwkSet.toJSONObject(false));
+    if (changed) {
+      verifier = new OAuthBearerSignedJwtVerifier(jwkSet);
+      version.incrementAndGet();
+    }
+    long endMs = System.currentTimeMillis();
+    lastReloadTimeMs = endMs;
+    lastReloadDurationMs = endMs - startMs;
+    return changed;
+  }
+
+  private void watch() {
+    while (!closed) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      boolean changed = false;
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW || jwksFile.getFileName().equals(event.context()))
+          changed = true;
+      }
+      if (changed && !closed)
+        reload();
+      if (!key.reset())
+        return;
+    }
+  }
+}
@@ -0,0 +1,200 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A look at the routing-relevant parts of a compact JWS serialization, without
+ * parsing it as a whole: the {@code alg}, {@code kid} and {@code typ} header
+ * parameters, and on request the {@code iss} claim. Only the header segment is
+ * decoded up front, into a single small array, and only the three parameters
+ * are kept; the payload is decoded only if {@link #issuer()} is called, and
+ * parsing stops at the {@code iss} member.
+ * <p>
+ * Nothing is verified: the values are as presented by the client, and are only
+ * fit for deciding how, or whether, to process the token in full.
+ */
+public final class OAuthBearerJwtPeek {
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final byte[] BASE64URL_VALUES = new byte[128];
+
+  static {
+    Arrays.fill(BASE64URL_VALUES, (byte) -1);
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    for (int i = 0; i < alphabet.length(); i++)
+      BASE64URL_VALUES[alphabet.charAt(i)] = (byte) i;
+  }
+
+  private final String compactSerialization;
+  private final int headerEnd;
+  private final int payloadEnd;
+  private final String algorithm;
+  private final String keyId;
+  private final String type;
+  private boolean issuerPeeked;
+  private String issuer;
+
+  /**
+   * Peek at the header of the given compact serialization
+   *
+   * @param compactSerialization
+   *            the mandatory compact serialization of a signed JWT
+   * @return the (always non-null) peeked header
+   * @throws ParseException
+   *             if the value does not have 3 dot-separated sections, or its
+   *             header is not Base64URL-encoded JSON with a string {@code alg}
+   */
+  public static OAuthBearerJwtPeek peek(String compactSerialization) throws ParseException {
+    return new OAuthBearerJwtPeek(Objects.requireNonNull(compactSerialization));
+  }
+
+  private OAuthBearerJwtPeek(String compactSerialization) throws ParseException {
+    this.compactSerialization = compactSerialization;
+    headerEnd = compactSerialization.indexOf('.');
+    payloadEnd = headerEnd < 0 ? -1 : compactSerialization.indexOf('.', headerEnd + 1);
+    if (payloadEnd < 0 || compactSerialization.indexOf('.', payloadEnd + 1) >= 0)
+      throw new ParseException("Invalid serialized signed JWT: must have 3 sections", 0);
+    String algorithm = null;
+    String keyId = null;
+    String type = null;
+    try (JsonParser parser = JSON_FACTORY.createParser(decode(compactSerialization, 0, headerEnd))) {
+      if (parser.nextToken() != JsonToken.START_OBJECT)
+        throw new ParseException("Invalid JWS header: not a JSON object", 0);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("alg".equals(name))
+          algorithm = string(parser, value, name);
+        else if ("kid".equals(name))
+          keyId = string(parser, value, name);
+        else if ("typ".equals(name))
+          type = string(parser, value, name);
+        else
+          parser.skipChildren();
+      }
+    } catch (IOException e) {
+      throw new ParseException("Invalid JWS header: " + message(e), 0);
+    }
+    if (algorithm == null)
+      throw new ParseException("Invalid JWS header: missing alg", 0);
+    this.algorithm = algorithm;
+    this.keyId = keyId;
+    this.type = type;
+  }
+
+  /**
+   * Return the (always non-null) {@code alg} header parameter
+   *
+   * @return the (always non-null) {@code alg} header parameter
+   */
+  public String algorithm() {
+    return algorithm;
+  }
+
+  /**
+   * Return the (potentially null) {@code kid} header parameter
+   *
+   * @return the (potentially null) {@code kid} header parameter
+   */
+  public String keyId() {
+    return keyId;
+  }
+
+  /**
+   * Return the (potentially null) {@code typ} header parameter
+   *
+   * @return the (potentially null) {@code typ} header parameter
+   */
+  public String type() {
+    return type;
+  }
+
+  /**
+   * Return the (potentially null) {@code iss} claim, decoding the payload on
+   * the first call
+   *
+   * @return the (potentially null) {@code iss} claim
+   * @throws ParseException
+   *             if the payload is not Base64URL-encoded JSON, or its
+   *             {@code iss} claim is not a string
+   */
+  public String issuer() throws ParseException {
+    if (!issuerPeeked) {
+      issuer = peekIssuer();
+      issuerPeeked = true;
+    }
+    return issuer;
+  }
+
+  /**
+   * Return the (always non-null) compact serialization
+   *
+   * @return the (always non-null) compact serialization
+   */
+  public String compactSerialization() {
+    return compactSerialization;
+  }
+
+  private String peekIssuer() throws ParseException {
+    try (JsonParser parser = JSON_FACTORY.createParser(decode(compactSerialization, headerEnd + 1, payloadEnd))) {
+      if (parser.nextToken() != JsonToken.START_OBJECT)
+        throw new ParseException("Invalid JWT payload: not a JSON object", headerEnd + 1);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("iss".equals(name))
+          return string(parser, value, name);
+        parser.skipChildren();
+      }
+      return null;
+    } catch (IOException e) {
+      throw new ParseException("Invalid JWT payload: " + message(e), headerEnd + 1);
+    }
+  }
+
+  private static String string(JsonParser parser, JsonToken value, String name) throws IOException, ParseException {
+    if (value != JsonToken.VALUE_STRING)
+      throw new ParseException(String.format("The %s value must be a string", name), 0);
+    return parser.getText();
+  }
+
+  private static String message(IOException e) {
+    // without the source excerpt Jackson appends, which would echo client input into logs
+    return e instanceof JsonProcessingException ? ((JsonProcessingException) e).getOriginalMessage() : e.getMessage();
+  }
+
+  /**
+   * Decode the unpadded Base64URL characters between the given offsets
+   */
+  private static byte[] decode(String value, int start, int end) throws ParseException {
+    while (end > start && value.charAt(end - 1) == '=')
+      end--;
+    int length = end - start;
+    if (length % 4 == 1)
+      throw new ParseException("Invalid Base64URL length", start);
+    byte[] bytes = new byte[length / 4 * 3 + Math.max(length % 4 - 1, 0)];
+    int bits = 0;
+    int bitCount = 0;
+    int out = 0;
+    for (int i = start; i < end; i++) {
+      char c = value.charAt(i);
+      int sextet = c < 128 ? BASE64URL_VALUES[c] : -1;
+      if (sextet < 0)
+        throw new ParseException("Invalid Base64URL character", i);
+      bits = bits << 6 | sextet;
+      bitCount += 6;
+      if (bitCount >= 8) {
+        bitCount -= 8;
+        bytes[out++] = (byte) (bits >> bitCount);
+      }
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,31 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+/**
+ * Source of the verifier for the currently trusted signing keys. Implementations
+ * that rotate keys must swap in a fully built verifier atomically, so that
+ * callers never block and never observe a partially loaded key set.
+ */
+public interface OAuthBearerKeySource {
+  /**
+   * Return the (always non-null) verifier for the current key set
+   *
+   * @return the (always non-null) verifier for the current key set
+   */
+  OAuthBearerSignedJwtVerifier verifier();
+
+  /**
+   * Return a verifier that may know the given key ID, which a token named but
+   * the current key set does not contain, or null if no such verifier can be
+   * obtained. Sources backed by a remote key set may start refetching it here;
+   * they must not make the calling thread, which may be a network thread, wait
+   * for the refetch, and must rate-limit it, since the key ID is chosen by the
+   * client. The default implementation returns null.
+   *
+   * @param keyId
+   *            the mandatory unknown key ID
+   * @return the verifier to retry with, if any, otherwise null
+   */
+  default OAuthBearerSignedJwtVerifier verifierForUnknownKey(String keyId) {
+    return null;
+  }
+}
@@ -0,0 +1,239 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.text.ParseException;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Key source backed by a remote JWKS endpoint, such as Knox's. The key set is
+ * fetched once at construction time and held locally; a background thread
+ * fetches it again ahead of every refresh interval, so validations never wait
+ * for the network. A failed refresh leaves the previous key set in effect.
+ * <p>
+ * A token naming a key ID that the local key set does not contain causes at
+ * most one refetch per {@code unknownKeyRefetchIntervalMs}, however many such
+ * tokens arrive: key IDs are chosen by the client, and a flood of forged ones
+ * must not turn into a flood of requests to the endpoint. The refetch runs on
+ * the background thread too; the token that caused it is rejected, and tokens
+ * signed with the new key are accepted once it has been installed.
+ */
+public class OAuthBearerRemoteJwksSource implements OAuthBearerKeySource, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(OAuthBearerRemoteJwksSource.class);
+
+  public static final long DEFAULT_REFRESH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+  public static final long DEFAULT_UNKNOWN_KEY_REFETCH_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+  private static final int CONNECT_TIMEOUT_MS = 5000;
+  private static final int READ_TIMEOUT_MS = 5000;
+  private static final int SIZE_LIMIT_BYTES = 512 * 1024;
+
+  private final URL jwksUrl;
+  private final long unknownKeyRefetchIntervalMs;
+  private final ScheduledExecutorService refresher;
+  private volatile OAuthBearerSignedJwtVerifier verifier;
+  private final AtomicLong version = new AtomicLong();
+  private final AtomicLong fetches = new AtomicLong();
+  private final AtomicLong fetchFailures = new AtomicLong();
+  private final AtomicLong unknownKeyRefetches = new AtomicLong();
+  private final AtomicLong rateLimitedRefetches = new AtomicLong();
+  private final AtomicLong lastUnknownKeyRefetchMs = new AtomicLong();
+  private volatile long lastFetchTimeMs;
+  // the number of the most recently started fetch whose key set was installed, guarded by this
+  private long installedFetch;
+
+  /**
+   * Constructor using the default refresh and refetch intervals
+   *
+   * @param jwksUrl
+   *            the mandatory URL of the JWKS endpoint
+   * @throws IOException
+   *             if the initial key set cannot be fetched
+   * @throws ParseException
+   *             if the initial response is not a valid JWK set
+   */
+  public OAuthBearerRemoteJwksSource(URL jwksUrl) throws IOException, ParseException {
+    this(jwksUrl, DEFAULT_REFRESH_INTERVAL_MS, DEFAULT_UNKNOWN_KEY_REFETCH_INTERVAL_MS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param jwksUrl
+   *            the mandatory URL of the JWKS endpoint
+   * @param refreshIntervalMs
+   *            the (positive) interval at which the key set is fetched again in
+   *            the background
+   * @param unknownKeyRefetchIntervalMs
+   *            the (non-negative) minimum interval between two refetches caused
+   *            by unknown key IDs
+   * @throws IOException
+   *             if the initial key set cannot be fetched
+   * @throws ParseException
+   *             if the initial response is not a valid JWK set
+   */
+  public OAuthBearerRemoteJwksSource(URL jwksUrl, long refreshIntervalMs, long unknownKeyRefetchIntervalMs)
+      throws IOException, ParseException {
+    if (refreshIntervalMs <= 0)
+      throw new IllegalArgumentException(String.format("Refresh interval must be positive: %d", refreshIntervalMs));
+    if (unknownKeyRefetchIntervalMs < 0)
+      throw new IllegalArgumentException(
+          String.format("Unknown key refetch interval must not be negative: %d", unknownKeyRefetchIntervalMs));
+    this.jwksUrl = Objects.requireNonNull(jwksUrl);
+    this.unknownKeyRefetchIntervalMs = unknownKeyRefetchIntervalMs;
+    fetch();
+    this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "oauthbearer-jwks-refresher-" + jwksUrl.getHost());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.refresher.scheduleWithFixedDelay(this::refresh, refreshIntervalMs, refreshIntervalMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public OAuthBearerSignedJwtVerifier verifier() {
+    return verifier;
+  }
+
+  /**
+   * Return the current verifier if a refetch has already brought in the given
+   * key ID, otherwise schedule a refetch on the background thread, unless one
+   * was scheduled within the last {@code unknownKeyRefetchIntervalMs}, and
+   * return null without waiting for it.
+   */
+  @Override
+  public OAuthBearerSignedJwtVerifier verifierForUnknownKey(String keyId) {
+    OAuthBearerSignedJwtVerifier current = verifier;
+    // an earlier refetch may already have brought in the key
+    if (current.hasKey(keyId))
+      return current;
+    long nowMs = System.currentTimeMillis();
+    long lastRefetchMs = lastUnknownKeyRefetchMs.get();
+    // of the threads seeing the same elapsed interval, only the one whose update succeeds refetches
+    if (nowMs - lastRefetchMs < unknownKeyRefetchIntervalMs
+        || !lastUnknownKeyRefetchMs.compareAndSet(lastRefetchMs, nowMs)) {
+      rateLimitedRefetches.incrementAndGet();
+      return null;
+    }
+    LOG.info("Refetching JWKS from {} for unknown key ID {}", jwksUrl, keyId);
+    try {
+      refresher.execute(this::refresh);
+      unknownKeyRefetches.incrementAndGet();
+    } catch (RejectedExecutionException e) {
+      // closed
+    }
+    return null;
+  }
+
+  /**
+   * Return the number of times a changed key set has been installed, starting
+   * at 1 for the initial fetch
+   *
+   * @return the key set version
+   */
+  public long version() {
+    return version.get();
+  }
+
+  /**
+   * Return the number of fetches attempted, including failed ones
+   *
+   * @return the number of fetches attempted
+   */
+  public long fetches() {
+    return fetches.get();
+  }
+
+  /**
+   * Return the number of fetches that failed and left the previous key set in
+   * effect
+   *
+   * @return the number of failed fetches
+   */
+  public long fetchFailures() {
+    return fetchFailures.get();
+  }
+
+  /**
+   * Return the number of refetches caused by unknown key IDs
+   *
+   * @return the number of refetches caused by unknown key IDs
+   */
+  public long unknownKeyRefetches() {
+    return unknownKeyRefetches.get();
+  }
+
+  /**
+   * Return the number of unknown key IDs for which no refetch was made because
+   * one had been made too recently
+   *
+   * @return the number of rate-limited refetches
+   */
+  public long rateLimitedRefetches() {
+    return rateLimitedRefetches.get();
+  }
+
+  /**
+   * Return the time, in milliseconds since the epoch, of the last successful
+   * fetch
+   *
+   * @return the time of the last successful fetch
+   */
+  public long lastFetchTimeMs() {
+    return lastFetchTimeMs;
+  }
+
+  /**
+   * Fetch the key set now, on the calling thread. Failures are logged and
+   * counted; the previous key set then stays in effect.
+   *
+   * @return true if the key set was fetched, otherwise false
+   */
+  public boolean refresh() {
+    try {
+      fetch();
+      return true;
+    } catch (IOException | ParseException | RuntimeException e) {
+      fetchFailures.incrementAndGet();
+      LOG.warn("Unable to fetch JWKS from {}, keeping version {}: {}", jwksUrl, version(), e.getMessage());
+      return false;
+    }
+  }
+
+  @Override
+  public void close() {
+    refresher.shutdownNow();
+  }
+
+  private void fetch() throws IOException, ParseException {
+    long fetch = fetches.incrementAndGet();
+    // no lock is held while waiting for the endpoint
+    JWKSet jwkSet = JWKSet.load(jwksUrl, CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS, SIZE_LIMIT_BYTES);
+    install(fetch, jwkSet);
+  }
+
+  private synchronized void install(long fetch, JWKSet jwkSet) {
+    // a fetch that started before the installed one may have returned an older key set
+    if (fetch < installedFetch)
+      return;
+    installedFetch = fetch;
+    lastFetchTimeMs = System.currentTimeMillis();
+    OAuthBearerSignedJwtVerifier current = verifier;
+    // keep the current verifier when nothing changed, so caches keyed on it stay valid
+    if (current != null && current.jwkSet().toJSONObject(false).equals(jwkSet.toJSONObject(false)))
+      return;
+    verifier = new OAuthBearerSignedJwtVerifier(jwkSet);
+    version.incrementAndGet();
+    LOG.info("Installed JWKS from {} (version {}, {} keys)", jwksUrl, version(), jwkSet.getKeys().size());
+  }
+}
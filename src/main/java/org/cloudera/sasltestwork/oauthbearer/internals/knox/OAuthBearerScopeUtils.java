@@ -1,9 +1,14 @@
 package org.cloudera.sasltestwork.oauthbearer.internals.knox;
 
+import org.cloudera.sasltestwork.Utils;
+
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -53,6 +58,31 @@ public class OAuthBearerScopeUtils {
     return Collections.unmodifiableList(retval);
   }
 
+  /**
+   * Return the scope held by the given value of a token's scope claim. This is
+   * the one rule by which clients and servers alike read the claim: a string is
+   * a single scope value, whether or not it contains spaces, and a list holds
+   * one scope value per string element. Values are trimmed, and blank values,
+   * non-string list elements and values of any other type are ignored.
+   *
+   * @param scopeClaim
+   *            the optional value of the scope claim
+   * @return the (always non-null, possibly empty) scope, in claim order
+   */
+  public static Set<String> scopeOfClaim(Object scopeClaim) {
+    Set<String> scope = new LinkedHashSet<>();
+    if (scopeClaim instanceof String) {
+      if (!Utils.isBlank((String) scopeClaim))
+        scope.add(((String) scopeClaim).trim());
+    } else if (scopeClaim instanceof Collection) {
+      for (Object scopeItem : (Collection<?>) scopeClaim) {
+        if (scopeItem instanceof String && !Utils.isBlank((String) scopeItem))
+          scope.add(((String) scopeItem).trim());
+      }
+    }
+    return scope;
+  }
+
   private OAuthBearerScopeUtils() {
     // empty
   }
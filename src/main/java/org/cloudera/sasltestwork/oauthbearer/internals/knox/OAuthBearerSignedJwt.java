@@ -1,23 +1,15 @@
 package org.cloudera.sasltestwork.oauthbearer.internals.knox;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
 import com.nimbusds.jose.proc.BadJOSEException;
-import com.nimbusds.jose.proc.JWSKeySelector;
-import com.nimbusds.jose.proc.JWSVerificationKeySelector;
-import com.nimbusds.jose.proc.SecurityContext;
-import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
-import com.nimbusds.jwt.JWTParser;
-import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
-import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import org.cloudera.sasltestwork.Utils;
 import org.cloudera.sasltestwork.oauthbearer.OAuthBearerToken;
+import org.cloudera.sasltestwork.oauthbearer.internals.OAuthBearerMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,8 +19,6 @@ import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -39,16 +29,24 @@ import java.util.Set;
  */
 public class OAuthBearerSignedJwt implements OAuthBearerToken {
   private static final Logger LOG = LoggerFactory.getLogger(OAuthBearerSignedJwt.class);
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final OAuthBearerValidationResult MALFORMED_BASE64 =
+      OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.MALFORMED, "malformed Base64 URL encoded value");
+  private static final OAuthBearerValidationResult MALFORMED_JSON =
+      OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.MALFORMED, "malformed JSON");
 
   private final String compactSerialization;
   private final String principalClaimName;
   private final String scopeClaimName;
-  private final JWTClaimsSet claims;
+  private final Map<String, Object> claims;
+  private final Object expirationTimeClaim;
+  private final Object issuedAtClaim;
+  private final Object subjectClaim;
   private final Set<String> scope;
   private final long lifetime;
   private final String principalName;
   private final Long startTimeMs;
-  private final JWKSet jwkSet;
+  private final OAuthBearerSignedJwtVerifier verifier;
 
   /**
    * Constructor with the given principal and scope claim names
@@ -70,7 +68,57 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
   public OAuthBearerSignedJwt(String compactSerialization, String principalClaimName, String scopeClaimName,
                               JWKSet jwkSet)
       throws OAuthBearerIllegalTokenException {
-    this.jwkSet = jwkSet;
+    this(compactSerialization, principalClaimName, scopeClaimName, new OAuthBearerSignedJwtVerifier(jwkSet));
+  }
+
+  /**
+   * Constructor with the given principal and scope claim names, verifying the
+   * signature with the given shared verifier
+   *
+   * @param compactSerialization
+   *            the compact serialization to parse as a signed JWT
+   * @param principalClaimName
+   *            the required principal claim name
+   * @param scopeClaimName
+   *            the required scope claim name
+   * @param verifier
+   *            the mandatory verifier to check the signature with
+   * @throws OAuthBearerIllegalTokenException
+   *             if the compact serialization is not a valid, correctly signed
+   *             JWT
+   */
+  public OAuthBearerSignedJwt(String compactSerialization, String principalClaimName, String scopeClaimName,
+                              OAuthBearerSignedJwtVerifier verifier)
+      throws OAuthBearerIllegalTokenException {
+    this(compactSerialization, null, principalClaimName, scopeClaimName, verifier);
+  }
+
+  /**
+   * Constructor with the given principal and scope claim names, verifying the
+   * signature of an already peeked token with the given shared verifier, so
+   * that its header is not decoded again
+   *
+   * @param peek
+   *            the mandatory peeked token
+   * @param principalClaimName
+   *            the required principal claim name
+   * @param scopeClaimName
+   *            the required scope claim name
+   * @param verifier
+   *            the mandatory verifier to check the signature with
+   * @throws OAuthBearerIllegalTokenException
+   *             if the peeked token is not a valid, correctly signed JWT
+   */
+  public OAuthBearerSignedJwt(OAuthBearerJwtPeek peek, String principalClaimName, String scopeClaimName,
+                              OAuthBearerSignedJwtVerifier verifier)
+      throws OAuthBearerIllegalTokenException {
+    this(peek.compactSerialization(), peek, principalClaimName, scopeClaimName, verifier);
+  }
+
+  private OAuthBearerSignedJwt(String compactSerialization, OAuthBearerJwtPeek peek, String principalClaimName,
+                               String scopeClaimName, OAuthBearerSignedJwtVerifier verifier)
+      throws OAuthBearerIllegalTokenException {
+    this.verifier = Objects.requireNonNull(verifier);
     try {
       this.compactSerialization = Objects.requireNonNull(compactSerialization);
       this.principalClaimName = Objects.requireNonNull(principalClaimName).trim();
@@ -80,23 +128,29 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
       if (this.scopeClaimName.isEmpty())
         throw new IllegalArgumentException("Must specify a non-blank scope claim name");
 
-      this.claims = validateToken(compactSerialization);
+      // the JSON view of the claims is built exactly once; every claim lookup reads from it
+      this.claims = Collections.unmodifiableMap(validateToken(compactSerialization, peek).toJSONObject());
+      this.expirationTimeClaim = claims.get("exp");
+      this.issuedAtClaim = claims.get("iat");
+      this.subjectClaim = claims.get("sub");
 
       this.scope = calculateScope();
       Number expirationTimeSeconds = expirationTime();
       if (expirationTimeSeconds == null)
         throw new OAuthBearerIllegalTokenException(
-            OAuthBearerValidationResult.newFailure("No expiration time in JWT"));
+            OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.MISSING_CLAIM, "No expiration time in JWT"));
       lifetime = convertClaimTimeInSecondsToMs(expirationTimeSeconds);
       String principalName = claim(this.principalClaimName, String.class);
       if (Utils.isBlank(principalName))
         throw new OAuthBearerIllegalTokenException(OAuthBearerValidationResult
-            .newFailure("No principal name in JWT claim: " + this.principalClaimName));
+            .newFailure(OAuthBearerFailureCode.MISSING_CLAIM, "No principal name in JWT claim: %s",
+                this.principalClaimName));
       this.principalName = principalName;
       this.startTimeMs = calculateStartTimeMs();
     } catch (ParseException | BadJOSEException | JOSEException e) {
-      throw new OAuthBearerIllegalTokenException(
-          OAuthBearerValidationResult.newFailure("Token validation failed"), e);
+      throw new OAuthBearerIllegalTokenException(OAuthBearerValidationResult.newFailure(
+          e instanceof ParseException ? OAuthBearerFailureCode.MALFORMED : OAuthBearerFailureCode.VERIFICATION_FAILED,
+          "Token validation failed"), e);
     }
   }
 
@@ -126,12 +180,13 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
   }
 
   /**
-   * Return the JWT Claim Set as a {@code Map}
+   * Return the JWT Claim Set as an unmodifiable {@code Map}. The same instance is
+   * returned on every call.
    *
    * @return the (always non-null but possibly empty) claims
    */
   public Map<String, Object> claims() {
-    return claims.toJSONObject();
+    return claims;
   }
 
   /**
@@ -187,14 +242,7 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
    *             if the claim exists but is not the given type
    */
   public <T> T claim(String claimName, Class<T> type) throws OAuthBearerIllegalTokenException {
-    Object value = rawClaim(claimName);
-    try {
-      return Objects.requireNonNull(type).cast(value);
-    } catch (ClassCastException e) {
-      throw new OAuthBearerIllegalTokenException(
-          OAuthBearerValidationResult.newFailure(String.format("The '%s' claim was not of type %s: %s",
-              claimName, type.getSimpleName(), value.getClass().getSimpleName())));
-    }
+    return castClaim(claimName, rawClaim(claimName), type);
   }
 
   /**
@@ -205,7 +253,7 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
    * @return the raw claim value, if it exists, otherwise null
    */
   public Object rawClaim(String claimName) {
-    return claims().get(Objects.requireNonNull(claimName));
+    return claims.get(Objects.requireNonNull(claimName));
   }
 
   /**
@@ -220,7 +268,7 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
    *             if the claim value is the incorrect type
    */
   public Number expirationTime() throws OAuthBearerIllegalTokenException {
-    return claim("exp", Number.class);
+    return castClaim("exp", expirationTimeClaim, Number.class);
   }
 
   /**
@@ -234,7 +282,7 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
    *             if the claim value is the incorrect type
    */
   public Number issuedAt() throws OAuthBearerIllegalTokenException {
-    return claim("iat", Number.class);
+    return castClaim("iat", issuedAtClaim, Number.class);
   }
 
   /**
@@ -248,7 +296,7 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
    *             if the claim value is the incorrect type
    */
   public String subject() throws OAuthBearerIllegalTokenException {
-    return claim("sub", String.class);
+    return castClaim("sub", subjectClaim, String.class);
   }
 
   /**
@@ -264,38 +312,70 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
    *             if the given Base64URL-encoded value cannot be decoded or parsed
    */
   public static Map<String, Object> toMap(String split) throws OAuthBearerIllegalTokenException {
-    Map<String, Object> retval = new HashMap<>();
+    byte[] decode;
     try {
-      byte[] decode = Base64.getDecoder().decode(split);
-      JsonNode jsonNode = new ObjectMapper().readTree(decode);
-      if (jsonNode == null)
-        throw new OAuthBearerIllegalTokenException(OAuthBearerValidationResult.newFailure("malformed JSON"));
-      for (Iterator<Map.Entry<String, JsonNode>> iterator = jsonNode.fields(); iterator.hasNext();) {
-        Map.Entry<String, JsonNode> entry = iterator.next();
-        retval.put(entry.getKey(), convert(entry.getValue()));
-      }
-      return Collections.unmodifiableMap(retval);
+      decode = Base64.getUrlDecoder().decode(split);
     } catch (IllegalArgumentException e) {
       // potentially thrown by java.util.Base64.Decoder implementations
-      throw new OAuthBearerIllegalTokenException(
-          OAuthBearerValidationResult.newFailure("malformed Base64 URL encoded value"));
+      throw new OAuthBearerIllegalTokenException(MALFORMED_BASE64);
+    }
+    // values are converted straight from the token stream, without building a tree first
+    try (JsonParser parser = JSON_FACTORY.createParser(decode)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT)
+        throw new OAuthBearerIllegalTokenException(MALFORMED_JSON);
+      Map<String, Object> retval = new HashMap<>();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        retval.put(name, convert(parser, parser.nextToken()));
+      }
+      return Collections.unmodifiableMap(retval);
     } catch (IOException e) {
-      throw new OAuthBearerIllegalTokenException(OAuthBearerValidationResult.newFailure("malformed JSON"));
+      throw new OAuthBearerIllegalTokenException(MALFORMED_JSON);
     }
   }
 
-  private static Object convert(JsonNode value) {
-    if (value.isArray()) {
+  private static Object convert(JsonParser parser, JsonToken token) throws IOException {
+    if (token == JsonToken.START_ARRAY) {
       List<String> retvalList = new ArrayList<>();
-      for (JsonNode arrayElement : value)
-        retvalList.add(arrayElement.asText());
+      for (JsonToken elementToken; (elementToken = parser.nextToken()) != JsonToken.END_ARRAY;)
+        retvalList.add(text(parser, elementToken));
       return retvalList;
     }
-    return value.getNodeType() == JsonNodeType.NUMBER ? value.numberValue() : value.asText();
+    return token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT
+        ? parser.getNumberValue()
+        : text(parser, token);
+  }
+
+  private static String text(JsonParser parser, JsonToken token) throws IOException {
+    switch (token) {
+      case START_OBJECT:
+      case START_ARRAY:
+        // nested structures have no text of their own
+        parser.skipChildren();
+        return "";
+      case VALUE_NUMBER_FLOAT:
+        return String.valueOf(parser.getDoubleValue());
+      case VALUE_NULL:
+        return "null";
+      default:
+        return parser.getText();
+    }
+  }
+
+  private static <T> T castClaim(String claimName, Object value, Class<T> type)
+      throws OAuthBearerIllegalTokenException {
+    try {
+      return Objects.requireNonNull(type).cast(value);
+    } catch (ClassCastException e) {
+      throw new OAuthBearerIllegalTokenException(
+          OAuthBearerValidationResult.newFailure(OAuthBearerFailureCode.INVALID_CLAIM_TYPE,
+              "The '%s' claim was not of type %s: %s", claimName, type.getSimpleName(),
+              value.getClass().getSimpleName()));
+    }
   }
 
   private Long calculateStartTimeMs() throws OAuthBearerIllegalTokenException {
-    Number issuedAtSeconds = claim("iat", Number.class);
+    Number issuedAtSeconds = issuedAt();
     return issuedAtSeconds == null ? null : convertClaimTimeInSecondsToMs(issuedAtSeconds);
   }
 
@@ -305,28 +385,11 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
 
   private Set<String> calculateScope() {
     String scopeClaimName = scopeClaimName();
-    if (isClaimType(scopeClaimName, String.class)) {
-      String scopeClaimValue = claim(scopeClaimName, String.class);
-      if (Utils.isBlank(scopeClaimValue))
-        return Collections.emptySet();
-      else {
-        Set<String> retval = new HashSet<>();
-        retval.add(scopeClaimValue.trim());
-        return Collections.unmodifiableSet(retval);
-      }
-    }
-    List<?> scopeClaimValue = claim(scopeClaimName, List.class);
-    if (scopeClaimValue == null || scopeClaimValue.isEmpty())
-      return Collections.emptySet();
-    @SuppressWarnings("unchecked")
-    List<String> stringList = (List<String>) scopeClaimValue;
-    Set<String> retval = new HashSet<>();
-    for (String scope : stringList) {
-      if (!Utils.isBlank(scope)) {
-        retval.add(scope.trim());
-      }
-    }
-    return Collections.unmodifiableSet(retval);
+    // a claim of any type other than a string or a list is rejected here, rather than ignored
+    Object scopeClaimValue = isClaimType(scopeClaimName, String.class)
+        ? claim(scopeClaimName, String.class)
+        : claim(scopeClaimName, List.class);
+    return Collections.unmodifiableSet(OAuthBearerScopeUtils.scopeOfClaim(scopeClaimValue));
   }
 
   /**
@@ -336,15 +399,19 @@ public class OAuthBearerSignedJwt implements OAuthBearerToken {
    * override of the entire token validation algorithm.
    *
    * @param jwtToken the token to validate
-   * @return true if valid
+   * @return the verified claims
    */
-  private JWTClaimsSet validateToken(String jwtToken) throws BadJOSEException, JOSEException, ParseException {
-    JWT jwt = JWTParser.parse(jwtToken);
-    ConfigurableJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
-    JWSKeySelector<SecurityContext> keySelector =
-        new JWSVerificationKeySelector<>((JWSAlgorithm)jwt.getHeader().getAlgorithm(), new ImmutableJWKSet<>(jwkSet));
-    jwtProcessor.setJWSKeySelector(keySelector);
-    return jwtProcessor.process(jwtToken, null);
+  private JWTClaimsSet validateToken(String jwtToken, OAuthBearerJwtPeek peek)
+      throws BadJOSEException, JOSEException, ParseException {
+    long startNanos = System.nanoTime();
+    try {
+      JWTClaimsSet claims = peek != null ? verifier.verify(peek) : verifier.verify(jwtToken);
+      OAuthBearerMetrics.VERIFY.record(startNanos, null);
+      return claims;
+    } catch (BadJOSEException | JOSEException | ParseException | RuntimeException e) {
+      OAuthBearerMetrics.VERIFY.record(startNanos, OAuthBearerSignedJwtVerifier.failureReason(e));
+      throw e;
+    }
   }
 
 }
@@ -0,0 +1,289 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.Ed25519Verifier;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.BadJWTException;
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerJfr;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerKeyLookupEvent;
+import org.cloudera.sasltestwork.oauthbearer.internals.jfr.OAuthBearerSignatureVerifyEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Long-lived, thread-safe verification engine for signed JWTs issued against a
+ * single {@link JWKSet}. A ready-to-use {@link JWSVerifier} is built for every
+ * signing key once, at construction time, and indexed by key ID and algorithm,
+ * so finding the verifier for a token is a hash lookup however large the key
+ * set grows, and no key material is converted per token. RSA, EC and Ed25519
+ * keys are supported, as well as HMAC secrets; each key is only used with the
+ * algorithms its type and curve support, or with its {@code alg} if it has one.
+ * <p>
+ * Tokens without a {@code kid} header are tried against every key supporting
+ * their algorithm, starting with the key that last verified a token from the
+ * same issuer.
+ */
+public class OAuthBearerSignedJwtVerifier {
+  private static final Logger LOG = LoggerFactory.getLogger(OAuthBearerSignedJwtVerifier.class);
+  private static final String NO_ISSUER = "";
+  private static final String UNKNOWN_KEY = "unknown_key";
+  private static final String NO_MATCHING_KEY = "no_matching_key";
+  private static final String INVALID_SIGNATURE = "invalid_signature";
+  private static final String UNEXPECTED_TYPE = "unexpected_type";
+  private static final String AMBIGUOUS_HEADER = "ambiguous_header";
+
+  private final JWKSet jwkSet;
+  private final Map<String, Map<JWSAlgorithm, List<JWSVerifier>>> verifiersByKeyId;
+  private final Map<JWSAlgorithm, List<JWSVerifier>> verifiersByAlgorithm;
+  private final Map<String, JWSVerifier> lastVerifierByIssuer = new ConcurrentHashMap<>();
+  private final DefaultJWTClaimsVerifier<SecurityContext> claimsVerifier = new DefaultJWTClaimsVerifier<>(null, null);
+
+  /**
+   * Constructor
+   *
+   * @param jwkSet
+   *            the mandatory key set used to verify token signatures
+   */
+  public OAuthBearerSignedJwtVerifier(JWKSet jwkSet) {
+    this.jwkSet = Objects.requireNonNull(jwkSet);
+    Map<String, Map<JWSAlgorithm, List<JWSVerifier>>> verifiersByKeyId = new HashMap<>();
+    Map<JWSAlgorithm, List<JWSVerifier>> verifiersByAlgorithm = new HashMap<>();
+    for (JWK key : jwkSet.getKeys()) {
+      // every key ID is known, even if its key cannot be used for verification
+      Map<JWSAlgorithm, List<JWSVerifier>> keyIdVerifiers = key.getKeyID() == null
+          ? null
+          : verifiersByKeyId.computeIfAbsent(key.getKeyID(), k -> new HashMap<>());
+      JWSVerifier verifier = newVerifier(key);
+      if (verifier == null)
+        continue;
+      for (JWSAlgorithm algorithm : verifier.supportedJWSAlgorithms()) {
+        if (key.getAlgorithm() != null && !key.getAlgorithm().equals(algorithm))
+          continue;
+        verifiersByAlgorithm.computeIfAbsent(algorithm, a -> new ArrayList<>(1)).add(verifier);
+        if (keyIdVerifiers != null)
+          keyIdVerifiers.computeIfAbsent(algorithm, a -> new ArrayList<>(1)).add(verifier);
+      }
+    }
+    this.verifiersByKeyId = Collections.unmodifiableMap(verifiersByKeyId);
+    this.verifiersByAlgorithm = Collections.unmodifiableMap(verifiersByAlgorithm);
+  }
+
+  /**
+   * Return the (always non-null) key set this verifier was built from
+   *
+   * @return the (always non-null) key set this verifier was built from
+   */
+  public JWKSet jwkSet() {
+    return jwkSet;
+  }
+
+  /**
+   * Indicate if the key set contains a key with the given ID
+   *
+   * @param keyId
+   *            the mandatory key ID
+   * @return true if the key set contains a key with the given ID, otherwise false
+   */
+  public boolean hasKey(String keyId) {
+    return verifiersByKeyId.containsKey(Objects.requireNonNull(keyId));
+  }
+
+  /**
+   * Parse the given compact serialization as a signed JWT, verify its signature
+   * and standard claims, and return its claims
+   *
+   * @param compactSerialization
+   *            the mandatory compact serialization of the token
+   * @return the (always non-null) verified claims
+   * @throws ParseException
+   *             if the value is not a signed JWT
+   * @throws OAuthBearerUnknownKeyException
+   *             if the token names a key ID that is not in the key set
+   * @throws BadJOSEException
+   *             if the token is rejected, e.g. due to an unsupported algorithm,
+   *             an unknown key or an invalid signature
+   * @throws JOSEException
+   *             if an internal processing error occurred
+   */
+  public JWTClaimsSet verify(String compactSerialization) throws ParseException, BadJOSEException, JOSEException {
+    return verify(OAuthBearerJwtPeek.peek(compactSerialization));
+  }
+
+  /**
+   * Verify the signature and standard claims of the given peeked token, and
+   * return its claims. The key is looked up from the peeked header before the
+   * token is parsed in full, so tokens for unknown keys or algorithms are
+   * rejected without decoding their payload.
+   *
+   * @param peek
+   *            the mandatory peeked token
+   * @return the (always non-null) verified claims
+   * @throws ParseException
+   *             if the value is not a signed JWT
+   * @throws OAuthBearerUnknownKeyException
+   *             if the token names a key ID that is not in the key set
+   * @throws BadJOSEException
+   *             if the token is rejected, e.g. due to an unsupported algorithm,
+   *             an unknown key or an invalid signature
+   * @throws JOSEException
+   *             if an internal processing error occurred
+   */
+  public JWTClaimsSet verify(OAuthBearerJwtPeek peek) throws ParseException, BadJOSEException, JOSEException {
+    if (peek.type() != null && !JOSEObjectType.JWT.getType().equalsIgnoreCase(peek.type()))
+      throw new RejectedJwtException(String.format("Signed JWT rejected: unexpected type: %s", peek.type()),
+          UNEXPECTED_TYPE);
+    String keyId = peek.keyId();
+    JWSAlgorithm algorithm = JWSAlgorithm.parse(peek.algorithm());
+    List<JWSVerifier> verifiers = verifiers(keyId, algorithm);
+    SignedJWT jwt = SignedJWT.parse(peek.compactSerialization());
+    // the verifiers were chosen from the peeked header; the parsed one must agree, e.g. on duplicate members
+    if (!algorithm.equals(jwt.getHeader().getAlgorithm()) || !Objects.equals(keyId, jwt.getHeader().getKeyID()))
+      throw new RejectedJwtException("Signed JWT rejected: ambiguous header", AMBIGUOUS_HEADER);
+    JWTClaimsSet claims = jwt.getJWTClaimsSet();
+    Object jfrEvent = OAuthBearerJfr.AVAILABLE ? OAuthBearerSignatureVerifyEvent.start() : null;
+    boolean verified = false;
+    try {
+      verified = keyId != null
+          ? verifySignature(jwt, verifiers)
+          : verifySignatureWithoutKeyId(jwt, claims.getIssuer() == null ? NO_ISSUER : claims.getIssuer(), verifiers);
+    } finally {
+      if (jfrEvent != null)
+        OAuthBearerSignatureVerifyEvent.finish(jfrEvent, keyId, algorithm.getName(),
+            verified ? OAuthBearerJfr.SUCCESS : INVALID_SIGNATURE);
+    }
+    if (!verified)
+      throw new RejectedJwtException("Signed JWT rejected: Invalid signature", INVALID_SIGNATURE);
+    try {
+      claimsVerifier.verify(claims, null);
+    } catch (BadJWTException e) {
+      // only the expiration and not-before times are checked, and an expired token fails whatever its nbf
+      boolean expired = claims.getExpirationTime() != null
+          && claims.getExpirationTime().getTime() < System.currentTimeMillis();
+      throw new RejectedJwtException(e.getMessage(),
+          (expired ? OAuthBearerFailureCode.EXPIRED : OAuthBearerFailureCode.NOT_YET_VALID).reason());
+    }
+    return claims;
+  }
+
+  /**
+   * Return the reason a token failed verification, as reported in metrics:
+   * this verifier's own reason where it rejected the token, otherwise the
+   * reason of the closest {@link OAuthBearerFailureCode}
+   *
+   * @param e
+   *            the mandatory exception thrown by {@link #verify(OAuthBearerJwtPeek)}
+   * @return the (always non-null) short, lower-case reason
+   */
+  static String failureReason(Exception e) {
+    if (e instanceof RejectedJwtException)
+      return ((RejectedJwtException) e).reason;
+    if (e instanceof OAuthBearerUnknownKeyException)
+      return UNKNOWN_KEY;
+    if (e instanceof ParseException)
+      return OAuthBearerFailureCode.MALFORMED.reason();
+    if (e instanceof BadJOSEException)
+      return OAuthBearerFailureCode.VERIFICATION_FAILED.reason();
+    return OAuthBearerFailureCode.OTHER.reason();
+  }
+
+  private List<JWSVerifier> verifiers(String keyId, JWSAlgorithm algorithm) throws BadJOSEException {
+    Object jfrEvent = OAuthBearerJfr.AVAILABLE ? OAuthBearerKeyLookupEvent.start() : null;
+    Map<JWSAlgorithm, List<JWSVerifier>> candidates =
+        keyId != null ? verifiersByKeyId.get(keyId) : verifiersByAlgorithm;
+    List<JWSVerifier> verifiers = candidates != null ? candidates.get(algorithm) : null;
+    if (jfrEvent != null)
+      OAuthBearerKeyLookupEvent.finish(jfrEvent, keyId, algorithm.getName(),
+          candidates == null ? UNKNOWN_KEY : verifiers == null ? NO_MATCHING_KEY : OAuthBearerJfr.SUCCESS);
+    if (candidates == null)
+      throw new OAuthBearerUnknownKeyException(keyId);
+    if (verifiers == null)
+      throw new RejectedJwtException(
+          String.format("Signed JWT rejected: no matching key(s) found for algorithm %s", algorithm), NO_MATCHING_KEY);
+    return verifiers;
+  }
+
+  private boolean verifySignatureWithoutKeyId(SignedJWT jwt, String issuer, List<JWSVerifier> verifiers)
+      throws JOSEException {
+    JWSVerifier lastVerifier = lastVerifierByIssuer.get(issuer);
+    if (lastVerifier != null && verifiers.contains(lastVerifier) && jwt.verify(lastVerifier))
+      return true;
+    for (JWSVerifier verifier : verifiers) {
+      if (verifier != lastVerifier && jwt.verify(verifier)) {
+        lastVerifierByIssuer.put(issuer, verifier);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean verifySignature(SignedJWT jwt, List<JWSVerifier> verifiers) throws JOSEException {
+    for (JWSVerifier verifier : verifiers) {
+      if (jwt.verify(verifier))
+        return true;
+    }
+    return false;
+  }
+
+  private static JWSVerifier newVerifier(JWK key) {
+    if (key.getKeyUse() != null && !KeyUse.SIGNATURE.equals(key.getKeyUse()))
+      return null;
+    try {
+      if (key instanceof RSAKey)
+        return new RSASSAVerifier((RSAKey) key);
+      if (key instanceof ECKey)
+        return new ECDSAVerifier((ECKey) key);
+      if (key instanceof OctetKeyPair)
+        return new Ed25519Verifier(((OctetKeyPair) key).toPublicJWK());
+      if (key instanceof OctetSequenceKey)
+        return new MACVerifier((OctetSequenceKey) key);
+      LOG.warn("Ignoring key {}: unsupported key type {}", key.getKeyID(), key.getKeyType());
+    } catch (JOSEException e) {
+      LOG.warn("Ignoring key {}: {}", key.getKeyID(), e.getMessage());
+    }
+    return null;
+  }
+
+  /**
+   * A token rejection; rejecting tokens is routine, so no stack trace is captured
+   */
+  private static final class RejectedJwtException extends BadJOSEException {
+    private static final long serialVersionUID = -2618330371944531523L;
+    private final String reason;
+
+    RejectedJwtException(String message, String reason) {
+      super(message);
+      this.reason = reason;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,302 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of token validation outcomes keyed by the SHA-256 digest
+ * of the token's compact serialization. Every entry carries its own expiration
+ * time; expired entries are never returned.
+ * <p>
+ * Lookups are lock-free: entries live in a {@link ConcurrentHashMap} and a hit
+ * only marks its entry as referenced. Once the cache is full, entries are
+ * evicted with the CLOCK approximation of least recently used: the oldest
+ * entry is evicted unless it has been hit since it was last considered, in
+ * which case it is given a second chance and the next one is considered
+ * instead. An expired entry is evicted as soon as it is considered.
+ * <p>
+ * An entry may be tagged with a version, such as the key set the token was
+ * verified against; it is then only returned to lookups for the same version.
+ * An outcome computed against an old key set while a new one was being
+ * installed is thus never returned once the new one is in use.
+ *
+ * @param <V>
+ *            the type of the cached value
+ */
+public class OAuthBearerTokenCache<V> {
+  private final int maxSize;
+  private final ConcurrentHashMap<TokenDigest, CachedValue<V>> entries = new ConcurrentHashMap<>();
+  // every key in the map is queued exactly once, in insertion order; size counts the queued keys
+  private final Queue<TokenDigest> evictionQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Constructor
+   *
+   * @param maxSize
+   *            the maximum number of entries to retain; must be positive
+   */
+  public OAuthBearerTokenCache(int maxSize) {
+    if (maxSize <= 0)
+      throw new IllegalArgumentException(String.format("Cache size must be positive: %d", maxSize));
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Return the cached value for the given token if it exists and has not
+   * expired, otherwise null
+   *
+   * @param tokenValue
+   *            the mandatory compact serialization of the token
+   * @param nowMs
+   *            the current time in milliseconds since the epoch
+   * @return the cached value, if any, otherwise null
+   */
+  public V get(String tokenValue, long nowMs) {
+    return get(TokenDigest.of(tokenValue), nowMs);
+  }
+
+  /**
+   * Return the cached value for the token with the given digest if it exists
+   * and has not expired, otherwise null
+   *
+   * @param digest
+   *            the mandatory digest of the token
+   * @param nowMs
+   *            the current time in milliseconds since the epoch
+   * @return the cached value, if any, otherwise null
+   */
+  public V get(TokenDigest digest, long nowMs) {
+    return get(digest, null, nowMs);
+  }
+
+  /**
+   * Return the cached value for the token with the given digest if it exists,
+   * has not expired and was cached for the given version, otherwise null
+   *
+   * @param digest
+   *            the mandatory digest of the token
+   * @param version
+   *            the optional version the value must have been cached for,
+   *            compared by identity
+   * @param nowMs
+   *            the current time in milliseconds since the epoch
+   * @return the cached value, if any, otherwise null
+   */
+  public V get(TokenDigest digest, Object version, long nowMs) {
+    CachedValue<V> entry = entries.get(Objects.requireNonNull(digest));
+    if (entry == null || nowMs >= entry.expiresAtMs || entry.version != version) {
+      // an expired or outdated entry is left in place; it is not referenced again, so it goes first
+      misses.increment();
+      return null;
+    }
+    // read before writing, so that hits on a popular token do not keep invalidating its cache line
+    if (!entry.referenced)
+      entry.referenced = true;
+    hits.increment();
+    return entry.value;
+  }
+
+  /**
+   * Cache the given value for the given token until the given expiration time.
+   * Nothing is cached if the expiration time has already passed.
+   *
+   * @param tokenValue
+   *            the mandatory compact serialization of the token
+   * @param value
+   *            the mandatory value to cache
+   * @param expiresAtMs
+   *            the time, in milliseconds since the epoch, at which the entry
+   *            must no longer be returned
+   * @param nowMs
+   *            the current time in milliseconds since the epoch
+   */
+  public void put(String tokenValue, V value, long expiresAtMs, long nowMs) {
+    put(TokenDigest.of(tokenValue), value, expiresAtMs, nowMs);
+  }
+
+  /**
+   * Cache the given value for the token with the given digest until the given
+   * expiration time. Nothing is cached if the expiration time has already
+   * passed.
+   *
+   * @param digest
+   *            the mandatory digest of the token
+   * @param value
+   *            the mandatory value to cache
+   * @param expiresAtMs
+   *            the time, in milliseconds since the epoch, at which the entry
+   *            must no longer be returned
+   * @param nowMs
+   *            the current time in milliseconds since the epoch
+   */
+  public void put(TokenDigest digest, V value, long expiresAtMs, long nowMs) {
+    put(digest, value, null, expiresAtMs, nowMs);
+  }
+
+  /**
+   * Cache the given value for the token with the given digest and the given
+   * version until the given expiration time. Nothing is cached if the
+   * expiration time has already passed.
+   *
+   * @param digest
+   *            the mandatory digest of the token
+   * @param value
+   *            the mandatory value to cache
+   * @param version
+   *            the optional version the value was computed for; only lookups
+   *            for the same version return it
+   * @param expiresAtMs
+   *            the time, in milliseconds since the epoch, at which the entry
+   *            must no longer be returned
+   * @param nowMs
+   *            the current time in milliseconds since the epoch
+   */
+  public void put(TokenDigest digest, V value, Object version, long expiresAtMs, long nowMs) {
+    Objects.requireNonNull(digest);
+    Objects.requireNonNull(value);
+    if (expiresAtMs <= nowMs)
+      return;
+    if (entries.put(digest, new CachedValue<>(value, version, expiresAtMs)) != null)
+      return;
+    evictionQueue.add(digest);
+    if (size.incrementAndGet() > maxSize)
+      evict(nowMs);
+  }
+
+  private void evict(long nowMs) {
+    // every queued entry is given at most one second chance, so this loop ends even if all are referenced
+    int budget = 2 * maxSize + 1;
+    while (size.get() > maxSize && budget-- > 0) {
+      TokenDigest digest = evictionQueue.poll();
+      if (digest == null)
+        return;
+      CachedValue<V> entry = entries.get(digest);
+      if (entry != null && entry.referenced && nowMs < entry.expiresAtMs) {
+        entry.referenced = false;
+        evictionQueue.add(digest);
+        continue;
+      }
+      entries.remove(digest);
+      size.decrementAndGet();
+    }
+  }
+
+  /**
+   * Return the maximum number of entries retained by this cache
+   *
+   * @return the maximum number of entries retained by this cache
+   */
+  public int maxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Return the current number of entries, including any that have expired but
+   * have not been removed yet
+   *
+   * @return the current number of entries
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Return the number of lookups that found a live entry
+   *
+   * @return the number of cache hits
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * Return the number of lookups that did not find a live entry
+   *
+   * @return the number of cache misses
+   */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /**
+   * Remove all entries; the hit and miss counts are retained
+   */
+  public void clear() {
+    TokenDigest digest;
+    while ((digest = evictionQueue.poll()) != null) {
+      entries.remove(digest);
+      size.decrementAndGet();
+    }
+  }
+
+  private static final class CachedValue<V> {
+    private final V value;
+    private final Object version;
+    private final long expiresAtMs;
+    private volatile boolean referenced;
+
+    private CachedValue(V value, Object version, long expiresAtMs) {
+      this.value = value;
+      this.version = version;
+      this.expiresAtMs = expiresAtMs;
+    }
+  }
+
+  /**
+   * The SHA-256 digest of a token's compact serialization, by which the token
+   * is cached. A token looked up in several caches need only be digested once.
+   */
+  public static final class TokenDigest {
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+      try {
+        return MessageDigest.getInstance(DIGEST_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+      }
+    });
+
+    private final byte[] digest;
+    private final int hashCode;
+
+    private TokenDigest(byte[] digest) {
+      this.digest = digest;
+      this.hashCode = Arrays.hashCode(digest);
+    }
+
+    /**
+     * Return the (always non-null) digest of the given token
+     *
+     * @param tokenValue
+     *            the mandatory compact serialization of the token
+     * @return the (always non-null) digest of the given token
+     */
+    public static TokenDigest of(String tokenValue) {
+      byte[] tokenBytes = Objects.requireNonNull(tokenValue).getBytes(StandardCharsets.UTF_8);
+      return new TokenDigest(DIGEST.get().digest(tokenBytes));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      return Arrays.equals(digest, ((TokenDigest) o).digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
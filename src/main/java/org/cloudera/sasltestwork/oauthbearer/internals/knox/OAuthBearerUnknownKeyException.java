@@ -0,0 +1,37 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import com.nimbusds.jose.proc.BadJOSEException;
+
+/**
+ * Exception thrown by {@link OAuthBearerSignedJwtVerifier} when a token names,
+ * via its {@code kid} header, a key that is not in the verifier's key set. Key
+ * IDs are chosen by the client, so no stack trace is captured.
+ */
+public class OAuthBearerUnknownKeyException extends BadJOSEException {
+  private static final long serialVersionUID = 3417260537581240117L;
+  private final String keyId;
+
+  public OAuthBearerUnknownKeyException(String keyId) {
+    super(null);
+    this.keyId = keyId;
+  }
+
+  @Override
+  public String getMessage() {
+    return "Signed JWT rejected: unknown key ID: " + keyId;
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+
+  /**
+   * Return the (always non-null) key ID named by the token
+   *
+   * @return the (always non-null) key ID named by the token
+   */
+  public String keyId() {
+    return keyId;
+  }
+}
@@ -1,21 +1,34 @@
 package org.cloudera.sasltestwork.oauthbearer.internals.knox;
 
 import java.io.Serializable;
+import java.util.Objects;
 
+/**
+ * The outcome of a validation step. Success is a single shared instance, and a
+ * failure's description is only formatted when it is first asked for, so
+ * neither a passed nor a failed check costs more than one small allocation.
+ */
 public class OAuthBearerValidationResult implements Serializable {
   private static final long serialVersionUID = 5774669940899777373L;
+  private static final Object[] NO_ARGS = new Object[0];
+  private static final OAuthBearerValidationResult SUCCESS =
+      new OAuthBearerValidationResult(true, null, null, NO_ARGS, null, null);
+
   private final boolean success;
-  private final String failureDescription;
+  private final OAuthBearerFailureCode failureCode;
+  private final String failureDescriptionFormat;
+  private final Object[] failureDescriptionArgs;
   private final String failureScope;
   private final String failureOpenIdConfig;
+  private transient volatile String failureDescription;
 
   /**
-   * Return an instance indicating success
+   * Return the (shared) instance indicating success
    *
-   * @return an instance indicating success
+   * @return the instance indicating success
    */
   public static OAuthBearerValidationResult newSuccess() {
-    return new OAuthBearerValidationResult(true, null, null, null);
+    return SUCCESS;
   }
 
   /**
@@ -43,15 +56,60 @@ public class OAuthBearerValidationResult implements Serializable {
    */
   public static OAuthBearerValidationResult newFailure(String failureDescription, String failureScope,
                                                        String failureOpenIdConfig) {
-    return new OAuthBearerValidationResult(false, failureDescription, failureScope, failureOpenIdConfig);
+    return new OAuthBearerValidationResult(false,
+        failureScope != null ? OAuthBearerFailureCode.INSUFFICIENT_SCOPE : OAuthBearerFailureCode.OTHER,
+        failureDescription, null, failureScope, failureOpenIdConfig);
   }
 
-  private OAuthBearerValidationResult(boolean success, String failureDescription, String failureScope,
-                                      String failureOpenIdConfig) {
+  /**
+   * Return a new validation failure instance whose description is formatted
+   * from the given format and arguments only when it is first asked for
+   *
+   * @param failureCode
+   *            the mandatory failure code
+   * @param failureDescriptionFormat
+   *            the mandatory {@link String#format(String, Object...)} format of
+   *            the description
+   * @param failureDescriptionArgs
+   *            the arguments referenced by the format
+   * @return a new validation failure instance
+   */
+  public static OAuthBearerValidationResult newFailure(OAuthBearerFailureCode failureCode,
+                                                       String failureDescriptionFormat,
+                                                       Object... failureDescriptionArgs) {
+    return new OAuthBearerValidationResult(false, Objects.requireNonNull(failureCode),
+        Objects.requireNonNull(failureDescriptionFormat), failureDescriptionArgs, null, null);
+  }
+
+  /**
+   * Return a new {@link OAuthBearerFailureCode#INSUFFICIENT_SCOPE} failure
+   * instance whose description is formatted only when it is first asked for
+   *
+   * @param failureScope
+   *            the mandatory scope to be reported with the failure
+   * @param failureDescriptionFormat
+   *            the mandatory {@link String#format(String, Object...)} format of
+   *            the description
+   * @param failureDescriptionArgs
+   *            the arguments referenced by the format
+   * @return a new validation failure instance
+   */
+  public static OAuthBearerValidationResult newScopeFailure(String failureScope, String failureDescriptionFormat,
+                                                            Object... failureDescriptionArgs) {
+    return new OAuthBearerValidationResult(false, OAuthBearerFailureCode.INSUFFICIENT_SCOPE,
+        Objects.requireNonNull(failureDescriptionFormat), failureDescriptionArgs,
+        Objects.requireNonNull(failureScope), null);
+  }
+
+  private OAuthBearerValidationResult(boolean success, OAuthBearerFailureCode failureCode,
+                                      String failureDescriptionFormat, Object[] failureDescriptionArgs,
+                                      String failureScope, String failureOpenIdConfig) {
     if (success && (failureScope != null || failureOpenIdConfig != null))
       throw new IllegalArgumentException("success was indicated but failure scope/OpenIdConfig were provided");
     this.success = success;
-    this.failureDescription = failureDescription;
+    this.failureCode = failureCode;
+    this.failureDescriptionFormat = failureDescriptionFormat;
+    this.failureDescriptionArgs = failureDescriptionArgs;
     this.failureScope = failureScope;
     this.failureOpenIdConfig = failureOpenIdConfig;
   }
@@ -65,13 +123,29 @@ public class OAuthBearerValidationResult implements Serializable {
     return success;
   }
 
+  /**
+   * Return the failure code; null if this instance indicates success
+   *
+   * @return the (potentially null) failure code
+   */
+  public OAuthBearerFailureCode failureCode() {
+    return failureCode;
+  }
+
   /**
    * Return the (potentially null) descriptive message for the failure
    *
    * @return the (potentially null) descriptive message for the failure
    */
   public String failureDescription() {
-    return failureDescription;
+    String description = failureDescription;
+    if (description == null && failureDescriptionFormat != null) {
+      description = failureDescriptionArgs == null
+          ? failureDescriptionFormat
+          : String.format(failureDescriptionFormat, failureDescriptionArgs);
+      failureDescription = description;
+    }
+    return description;
   }
 
   /**
@@ -104,4 +178,8 @@ public class OAuthBearerValidationResult implements Serializable {
     if (!success())
       throw new OAuthBearerIllegalTokenException(this);
   }
+
+  private Object readResolve() {
+    return success ? SUCCESS : this;
+  }
 }
@@ -0,0 +1,231 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import org.cloudera.sasltestwork.Utils;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable, pre-validated server-side token validation settings compiled from
+ * the JAAS module options. All option parsing happens once in
+ * {@link #fromOptions(Map)} so that malformed options are reported when the
+ * callback handler is configured rather than during a SASL handshake.
+ */
+public class OAuthBearerValidatorConfig {
+  public static final String OPTION_PREFIX = "signedJwtValidator";
+  public static final String PRINCIPAL_CLAIM_NAME_OPTION = OPTION_PREFIX + "PrincipalClaimName";
+  public static final String SCOPE_CLAIM_NAME_OPTION = OPTION_PREFIX + "ScopeClaimName";
+  public static final String REQUIRED_SCOPE_OPTION = OPTION_PREFIX + "RequiredScope";
+  public static final String ALLOWABLE_CLOCK_SKEW_MILLIS_OPTION = OPTION_PREFIX + "AllowableClockSkewMs";
+  public static final String TOKEN_CACHE_MAX_SIZE_OPTION = OPTION_PREFIX + "TokenCacheMaxSize";
+  public static final String REJECTED_TOKEN_CACHE_MAX_SIZE_OPTION = OPTION_PREFIX + "RejectedTokenCacheMaxSize";
+  public static final String REJECTED_TOKEN_CACHE_TTL_MILLIS_OPTION = OPTION_PREFIX + "RejectedTokenCacheTtlMs";
+  public static final String PRE_SCREEN_CLAIMS_OPTION = OPTION_PREFIX + "PreScreenClaims";
+  public static final String ASYNC_THREADS_OPTION = OPTION_PREFIX + "AsyncThreads";
+  public static final String ASYNC_QUEUE_SIZE_OPTION = OPTION_PREFIX + "AsyncQueueSize";
+
+  private static final String DEFAULT_PRINCIPAL_CLAIM_NAME = "sub";
+  private static final String DEFAULT_SCOPE_CLAIM_NAME = "scope";
+  private static final int DEFAULT_REJECTED_TOKEN_CACHE_TTL_MS = 10000;
+  private static final int DEFAULT_ASYNC_QUEUE_SIZE = 1024;
+
+  private final String principalClaimName;
+  private final String scopeClaimName;
+  private final Set<String> requiredScope;
+  private final int allowableClockSkewMs;
+  private final int tokenCacheMaxSize;
+  private final int rejectedTokenCacheMaxSize;
+  private final int rejectedTokenCacheTtlMs;
+  private final boolean preScreenClaims;
+  private final int asyncThreads;
+  private final int asyncQueueSize;
+
+  /**
+   * Compile the given JAAS module options
+   *
+   * @param moduleOptions
+   *            the mandatory (but potentially empty) module options
+   * @return the compiled configuration
+   * @throws OAuthBearerConfigException
+   *             if any option value is malformed
+   */
+  public static OAuthBearerValidatorConfig fromOptions(Map<String, String> moduleOptions)
+      throws OAuthBearerConfigException {
+    Objects.requireNonNull(moduleOptions);
+    return new OAuthBearerValidatorConfig(
+        claimName(moduleOptions.get(PRINCIPAL_CLAIM_NAME_OPTION), DEFAULT_PRINCIPAL_CLAIM_NAME),
+        claimName(moduleOptions.get(SCOPE_CLAIM_NAME_OPTION), DEFAULT_SCOPE_CLAIM_NAME),
+        requiredScope(moduleOptions.get(REQUIRED_SCOPE_OPTION)),
+        nonNegativeInt(moduleOptions.get(ALLOWABLE_CLOCK_SKEW_MILLIS_OPTION), "Allowable clock skew millis"),
+        nonNegativeInt(moduleOptions.get(TOKEN_CACHE_MAX_SIZE_OPTION), "Token cache max size"),
+        nonNegativeInt(moduleOptions.get(REJECTED_TOKEN_CACHE_MAX_SIZE_OPTION), "Rejected token cache max size"),
+        positiveInt(moduleOptions.get(REJECTED_TOKEN_CACHE_TTL_MILLIS_OPTION), "Rejected token cache TTL millis",
+            DEFAULT_REJECTED_TOKEN_CACHE_TTL_MS),
+        booleanOption(moduleOptions.get(PRE_SCREEN_CLAIMS_OPTION), "Pre-screen claims"),
+        positiveInt(moduleOptions.get(ASYNC_THREADS_OPTION), "Async validation threads",
+            Runtime.getRuntime().availableProcessors()),
+        positiveInt(moduleOptions.get(ASYNC_QUEUE_SIZE_OPTION), "Async validation queue size",
+            DEFAULT_ASYNC_QUEUE_SIZE));
+  }
+
+  private OAuthBearerValidatorConfig(String principalClaimName, String scopeClaimName, Set<String> requiredScope,
+                                     int allowableClockSkewMs, int tokenCacheMaxSize,
+                                     int rejectedTokenCacheMaxSize, int rejectedTokenCacheTtlMs,
+                                     boolean preScreenClaims, int asyncThreads, int asyncQueueSize) {
+    this.principalClaimName = principalClaimName;
+    this.scopeClaimName = scopeClaimName;
+    this.requiredScope = requiredScope;
+    this.allowableClockSkewMs = allowableClockSkewMs;
+    this.tokenCacheMaxSize = tokenCacheMaxSize;
+    this.rejectedTokenCacheMaxSize = rejectedTokenCacheMaxSize;
+    this.rejectedTokenCacheTtlMs = rejectedTokenCacheTtlMs;
+    this.preScreenClaims = preScreenClaims;
+    this.asyncThreads = asyncThreads;
+    this.asyncQueueSize = asyncQueueSize;
+  }
+
+  /**
+   * Return the (always non-null/non-empty) principal claim name
+   *
+   * @return the (always non-null/non-empty) principal claim name
+   */
+  public String principalClaimName() {
+    return principalClaimName;
+  }
+
+  /**
+   * Return the (always non-null/non-empty) scope claim name
+   *
+   * @return the (always non-null/non-empty) scope claim name
+   */
+  public String scopeClaimName() {
+    return scopeClaimName;
+  }
+
+  /**
+   * Return the (always non-null but potentially empty) unmodifiable set of
+   * required scope values
+   *
+   * @return the (always non-null but potentially empty) required scope
+   */
+  public Set<String> requiredScope() {
+    return requiredScope;
+  }
+
+  /**
+   * Return the (always non-negative) allowable clock skew in milliseconds
+   *
+   * @return the (always non-negative) allowable clock skew in milliseconds
+   */
+  public int allowableClockSkewMs() {
+    return allowableClockSkewMs;
+  }
+
+  /**
+   * Return the maximum number of verified tokens to cache; zero if caching is
+   * disabled
+   *
+   * @return the (always non-negative) maximum number of verified tokens to cache
+   */
+  public int tokenCacheMaxSize() {
+    return tokenCacheMaxSize;
+  }
+
+  /**
+   * Return the maximum number of rejected tokens to remember; zero if rejected
+   * tokens are not remembered
+   *
+   * @return the (always non-negative) maximum number of rejected tokens to cache
+   */
+  public int rejectedTokenCacheMaxSize() {
+    return rejectedTokenCacheMaxSize;
+  }
+
+  /**
+   * Return how long a rejected token is remembered, in milliseconds; defaults
+   * to 10 seconds
+   *
+   * @return the (always positive) time to remember a rejected token for
+   */
+  public int rejectedTokenCacheTtlMs() {
+    return rejectedTokenCacheTtlMs;
+  }
+
+  /**
+   * Indicate if the expiration time, issued at time, principal and scope claims
+   * are screened before the signature is verified; defaults to false
+   *
+   * @return true if claims are screened before signature verification
+   */
+  public boolean preScreenClaims() {
+    return preScreenClaims;
+  }
+
+  /**
+   * Return the number of threads validating tokens asynchronously; defaults to
+   * the number of available processors
+   *
+   * @return the (always positive) number of asynchronous validation threads
+   */
+  public int asyncThreads() {
+    return asyncThreads;
+  }
+
+  /**
+   * Return the maximum number of asynchronous validations waiting for a thread;
+   * further validations are rejected
+   *
+   * @return the (always positive) asynchronous validation queue size
+   */
+  public int asyncQueueSize() {
+    return asyncQueueSize;
+  }
+
+  private static String claimName(String claimNameValue, String defaultClaimName) {
+    return Utils.isBlank(claimNameValue) ? defaultClaimName : claimNameValue.trim();
+  }
+
+  private static Set<String> requiredScope(String requiredSpaceDelimitedScope) {
+    return Utils.isBlank(requiredSpaceDelimitedScope)
+        ? Collections.emptySet()
+        : Collections.unmodifiableSet(
+            new LinkedHashSet<>(OAuthBearerScopeUtils.parseScope(requiredSpaceDelimitedScope.trim())));
+  }
+
+  private static boolean booleanOption(String value, String description) {
+    if (Utils.isBlank(value))
+      return false;
+    String trimmed = value.trim();
+    if ("true".equalsIgnoreCase(trimmed))
+      return true;
+    if ("false".equalsIgnoreCase(trimmed))
+      return false;
+    throw new OAuthBearerConfigException(String.format("%s must be true or false: %s", description, value));
+  }
+
+  private static int positiveInt(String value, String description, int defaultValue) {
+    if (Utils.isBlank(value))
+      return defaultValue;
+    int intValue = nonNegativeInt(value, description);
+    if (intValue == 0)
+      throw new OAuthBearerConfigException(String.format("%s must be positive: %s", description, value));
+    return intValue;
+  }
+
+  private static int nonNegativeInt(String value, String description) {
+    int intValue;
+    try {
+      intValue = Utils.isBlank(value) ? 0 : Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new OAuthBearerConfigException(e.getMessage(), e);
+    }
+    if (intValue < 0) {
+      throw new OAuthBearerConfigException(
+          String.format("%s must not be negative: %s", description, value));
+    }
+    return intValue;
+  }
+}
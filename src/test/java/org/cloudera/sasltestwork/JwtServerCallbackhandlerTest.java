@@ -0,0 +1,173 @@
+package org.cloudera.sasltestwork;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerValidatorCallback;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerIssuer;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerKeySource;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerSignedJwtVerifier;
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerValidatorConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.auth.login.AppConfigurationEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tokens are routed to an issuer by their unverified {@code iss} claim, so a
+ * token must only ever be accepted when it is signed by a key of the issuer it
+ * names, and validated with that issuer's options and caches
+ */
+public class JwtServerCallbackhandlerTest {
+  private static final String ISSUER_A = "https://a.example.com";
+  private static final String ISSUER_B = "https://b.example.com";
+
+  private ECKey keyA;
+  private ECKey keyB;
+  private JwtServerCallbackhandler handler;
+
+  @Before
+  public void setUp() throws Exception {
+    keyA = new ECKeyGenerator(Curve.P_256).keyID("a").generate();
+    keyB = new ECKeyGenerator(Curve.P_256).keyID("b").generate();
+    Map<String, String> optionsB = new HashMap<>();
+    optionsB.put(OAuthBearerValidatorConfig.PRINCIPAL_CLAIM_NAME_OPTION, "upn");
+    optionsB.put(OAuthBearerValidatorConfig.REQUIRED_SCOPE_OPTION, "write");
+    handler = new JwtServerCallbackhandler(Arrays.asList(
+        new OAuthBearerIssuer(ISSUER_A, keySource(keyA)),
+        new OAuthBearerIssuer(ISSUER_B, keySource(keyB), optionsB)));
+    Map<String, String> options = new HashMap<>();
+    options.put(OAuthBearerValidatorConfig.TOKEN_CACHE_MAX_SIZE_OPTION, "10");
+    options.put(OAuthBearerValidatorConfig.REJECTED_TOKEN_CACHE_MAX_SIZE_OPTION, "10");
+    configure(handler, options);
+  }
+
+  @Test
+  public void testTokenOfTrustedIssuerIsAccepted() throws Exception {
+    OAuthBearerValidatorCallback callback = validate(sign(keyA, claims(ISSUER_A)));
+    assertNotNull(callback.token());
+    assertEquals("alice", callback.token().principalName());
+  }
+
+  @Test
+  public void testUnknownIssuerIsRejected() throws Exception {
+    assertRejected(validate(sign(keyA, claims("https://c.example.com"))));
+    assertRejected(validate(sign(keyA, "{\"sub\":\"alice\",\"exp\":" + expiry() + "}")));
+  }
+
+  @Test
+  public void testTokenSignedByAnotherIssuerIsRejected() throws Exception {
+    // named issuer A but signed with B's key: routed to A, whose keys do not verify it
+    assertRejected(validate(sign(keyB, claims(ISSUER_A))));
+    assertRejected(validate(sign(keyA, claims(ISSUER_B))));
+  }
+
+  @Test
+  public void testVerifiedIssuerMustMatchRoutedIssuer() throws Exception {
+    // routed by the first iss member to A, whose key signed it, but the verified claims name B
+    String payload = "{\"iss\":\"" + ISSUER_A + "\",\"sub\":\"alice\",\"upn\":\"alice\",\"scope\":\"write\","
+        + "\"exp\":" + expiry() + ",\"iss\":\"" + ISSUER_B + "\"}";
+    assertRejected(validate(sign(keyA, payload)));
+  }
+
+  @Test
+  public void testIssuerOptionsOverrideJaasOptions() throws Exception {
+    // B names its principal by upn and requires the write scope; A uses the defaults
+    OAuthBearerValidatorCallback callback = validate(sign(keyB, claims(ISSUER_B)));
+    assertNotNull(callback.token());
+    assertEquals("bob", callback.token().principalName());
+
+    String withoutScope = "{\"iss\":\"" + ISSUER_B + "\",\"sub\":\"alice\",\"upn\":\"bob\",\"exp\":" + expiry() + "}";
+    callback = validate(sign(keyB, withoutScope));
+    assertNull(callback.token());
+    assertEquals("insufficient_scope", callback.errorStatus());
+
+    callback = validate(sign(keyA, withoutScope.replace(ISSUER_B, ISSUER_A)));
+    assertEquals("alice", callback.token().principalName());
+  }
+
+  @Test
+  public void testCachesAreIsolatedBetweenIssuers() throws Exception {
+    String tokenA = sign(keyA, claims(ISSUER_A));
+    validate(tokenA);
+    validate(tokenA);
+    assertEquals(1, handler.tokenCache(ISSUER_A).size());
+    assertEquals(1, handler.tokenCache(ISSUER_A).hits());
+    assertEquals(0, handler.tokenCache(ISSUER_B).size());
+
+    assertRejected(validate(sign(keyA, claims(ISSUER_B))));
+    assertEquals(1, handler.rejectedTokenCache(ISSUER_B).size());
+    assertEquals(0, handler.rejectedTokenCache(ISSUER_A).size());
+    // tokens of untrusted issuers are not cached anywhere
+    assertRejected(validate(sign(keyA, claims("https://c.example.com"))));
+    assertNull(handler.tokenCache("https://c.example.com"));
+    assertEquals(0, handler.rejectedTokenCache(ISSUER_A).size());
+  }
+
+  @Test
+  public void testAsyncOptionsCannotBeOverriddenPerIssuer() {
+    for (String option : Arrays.asList(OAuthBearerValidatorConfig.ASYNC_THREADS_OPTION,
+        OAuthBearerValidatorConfig.ASYNC_QUEUE_SIZE_OPTION)) {
+      try {
+        new OAuthBearerIssuer(ISSUER_A, keySource(keyA), Collections.singletonMap(option, "1"));
+        fail("Expected IllegalArgumentException for " + option);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  private OAuthBearerValidatorCallback validate(String tokenValue) throws Exception {
+    OAuthBearerValidatorCallback callback = new OAuthBearerValidatorCallback(tokenValue);
+    handler.handle(new OAuthBearerValidatorCallback[] {callback});
+    return callback;
+  }
+
+  private static void assertRejected(OAuthBearerValidatorCallback callback) {
+    assertNull(callback.token());
+    assertEquals("invalid_token", callback.errorStatus());
+  }
+
+  private static void configure(JwtServerCallbackhandler handler, Map<String, String> options) {
+    handler.configure("OAUTHBEARER", Collections.singletonList(new AppConfigurationEntry("OAuthBearerLoginModule",
+        AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options)));
+  }
+
+  private static OAuthBearerKeySource keySource(ECKey key) {
+    OAuthBearerSignedJwtVerifier verifier = new OAuthBearerSignedJwtVerifier(new JWKSet(key.toPublicJWK()));
+    return () -> verifier;
+  }
+
+  private static String claims(String issuer) {
+    return "{\"iss\":\"" + issuer + "\",\"sub\":\"alice\",\"upn\":\"bob\",\"scope\":[\"read\",\"write\"],\"exp\":"
+        + expiry() + "}";
+  }
+
+  private static long expiry() {
+    return System.currentTimeMillis() / 1000 + 600;
+  }
+
+  private static String sign(ECKey key, String payload) throws JOSEException {
+    JWSObject jws = new JWSObject(new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(key.getKeyID()).build(),
+        new Payload(payload));
+    jws.sign(new ECDSASigner(key));
+    return jws.serialize();
+  }
+}
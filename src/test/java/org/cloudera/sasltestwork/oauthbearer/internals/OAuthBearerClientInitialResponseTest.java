@@ -0,0 +1,216 @@
+package org.cloudera.sasltestwork.oauthbearer.internals;
+
+import org.cloudera.sasltestwork.SaslExtensions;
+import org.cloudera.sasltestwork.Utils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.security.sasl.SaslException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The hand-written client initial response parser must accept exactly the
+ * messages the regular expression based parser it replaced accepted, and
+ * extract the same authorization ID, token and extensions from them.
+ */
+public class OAuthBearerClientInitialResponseTest {
+  private static final String FAIL = "FAIL";
+  private static final String[] PIECES = {"n", ",", "a=", "a", "=", "=2C", "=3D", "=2", "\u0001", "auth", "auth=",
+      "Bearer ", "bearer", "BEARER", "Basic ", "  ", " ", "tok.en-_1", "abc", "xyz=", "k", "v", "\t", "\r\n",
+      "\u0080", "\u00e9", "\u007f", "\u0000", "Z9", "_", ".", "-", "foo=bar"};
+
+  /**
+   * Inputs, with ^A standing for the 0x01 separator, and the expected outcome:
+   * {@code authzid|token|extensions} or {@code FAIL}
+   */
+  private static final String[][] GOLDEN = {
+      {"n,,^Aauth=Bearer eyJ.abc.d-_^A^A", "|eyJ.abc.d-_|{}"},
+      {"n,a=user,^Aauth=Bearer tok^A^A", "user|tok|{}"},
+      {"n,a=us=2Cer=3D,^Aauth=Bearer tok^A^A", "us=2Cer=3D|tok|{}"},
+      {"n,,^Aauth=bearer tok^A^A", "|tok|{}"},
+      {"n,,^Aauth=BEARER tok^A^A", "|tok|{}"},
+      {"n,,^Aauth=Bearer    tok^A^A", "|tok|{}"},
+      {"n,,^Aauth=Bearer tok^Atrace=abc 123^A^A", "|tok|{trace=abc 123}"},
+      {"n,,^Atrace=abc^Aauth=Bearer tok^A^A", "|tok|{trace=abc}"},
+      // the last of repeated keys wins, for auth as for extensions
+      {"n,,^Ak=v1^Ak=v2^Aauth=Bearer tok^A^A", "|tok|{k=v2}"},
+      {"n,,^Aauth=Bearer one^Aauth=Bearer two^A^A", "|two|{}"},
+      {"n,,^Ak=a=b^Aauth=Bearer tok^A^A", "|tok|{k=a=b}"},
+      {"n,,^Aauth=Basic tok^A^A", FAIL},
+      {"n,,^Aauth=Bearer^A^A", FAIL},
+      {"n,,^Aauth=Bearertok^A^A", FAIL},
+      {"n,,^Aauth=Bearer to ken^A^A", FAIL},
+      {"n,,^Aauth=Bearer tok+en^A^A", FAIL},
+      {"n,,^Ak=v^A^A", FAIL},
+      {"n,,^A^A", FAIL},
+      {"n,,^Aauth=Bearer tok^A", FAIL},
+      {"n,,^Aauth=Bearer tok^A^A^A", FAIL},
+      {"y,,^Aauth=Bearer tok^A^A", FAIL},
+      {"n,a=,^Aauth=Bearer tok^A^A", FAIL},
+      {"n,a=us=2er,^Aauth=Bearer tok^A^A", FAIL},
+      {"n,a=u,ser,^Aauth=Bearer tok^A^A", FAIL},
+      {"n,,^Ak9=v^Aauth=Bearer tok^A^A", FAIL},
+      {"n,,^Ak=^Aauth=Bearer tok^A^A", FAIL},
+      {"n,,^Ak=\u00e9^Aauth=Bearer tok^A^A", FAIL},
+      {"n,,^Ak=\u007f^Aauth=Bearer tok^A^A", FAIL},
+      {"n,a=\u00e9,^Aauth=Bearer tok^A^A", FAIL},
+      {"", FAIL},
+  };
+
+  @Test
+  public void testGoldenInputs() {
+    for (String[] golden : GOLDEN) {
+      byte[] response = golden[0].replace("^A", "\u0001").getBytes(StandardCharsets.UTF_8);
+      assertEquals(golden[0], golden[1], RegexParser.parse(response));
+      assertEquals(golden[0], golden[1], parse(response));
+    }
+  }
+
+  @Test
+  public void testParserMatchesRegexParser() {
+    Random random = new Random(42);
+    for (int i = 0; i < 200_000; i++) {
+      String message = random.nextInt(3) == 0 ? randomPieces(random) : randomMessage(random);
+      byte[] response = message.getBytes(StandardCharsets.UTF_8);
+      assertEquals(message.replace("\u0001", "^A"), RegexParser.parse(response), parse(response));
+    }
+  }
+
+  @Test
+  public void testEncodingMatchesRegexParserEncoding() throws SaslException {
+    Random random = new Random(7);
+    for (int i = 0; i < 50_000; i++) {
+      Map<String, String> extensions = new HashMap<>();
+      int count = random.nextInt(3);
+      for (int j = 0; j < count; j++)
+        extensions.put("k" + (char) ('a' + random.nextInt(26)), "v" + randomString(random, true));
+      String tokenValue = randomString(random, false);
+      String authorizationId = random.nextBoolean() ? "" : randomString(random, false);
+      OAuthBearerClientInitialResponse response =
+          new OAuthBearerClientInitialResponse(tokenValue, authorizationId, new SaslExtensions(extensions));
+      byte[] bytes = response.toBytes();
+      assertArrayEquals(RegexParser.encode(tokenValue, authorizationId, response.extensions().map()), bytes);
+      assertEquals(bytes.length, response.encodedSize());
+    }
+  }
+
+  private static String parse(byte[] response) {
+    try {
+      OAuthBearerClientInitialResponse parsed = new OAuthBearerClientInitialResponse(response);
+      return describe(parsed.authorizationId(), parsed.tokenValue(), parsed.extensions().map());
+    } catch (SaslException e) {
+      return FAIL;
+    }
+  }
+
+  private static String describe(String authorizationId, String tokenValue, Map<String, String> extensions) {
+    return authorizationId + "|" + tokenValue + "|" + new TreeMap<>(extensions);
+  }
+
+  private static String randomPieces(Random random) {
+    StringBuilder message = new StringBuilder();
+    int count = random.nextInt(20);
+    for (int i = 0; i < count; i++)
+      message.append(PIECES[random.nextInt(PIECES.length)]);
+    return message.toString();
+  }
+
+  private static String randomMessage(Random random) {
+    StringBuilder message = new StringBuilder("n,");
+    if (random.nextBoolean())
+      message.append("a=").append(random.nextBoolean() ? "user=2Cx" : PIECES[random.nextInt(PIECES.length)]);
+    message.append(",\u0001");
+    List<String> pairs = new ArrayList<>();
+    pairs.add("auth=" + (random.nextInt(5) == 0 ? PIECES[random.nextInt(PIECES.length)] : "Bearer")
+        + (random.nextInt(5) == 0 ? "" : " ")
+        + (random.nextBoolean() ? "eyJ.abc.d-_" : PIECES[random.nextInt(PIECES.length)]));
+    int count = random.nextInt(4);
+    for (int i = 0; i < count; i++)
+      pairs.add(PIECES[random.nextInt(PIECES.length)] + "=" + PIECES[random.nextInt(PIECES.length)]);
+    Collections.shuffle(pairs, random);
+    for (String pair : pairs)
+      message.append(pair).append('\u0001');
+    message.append('\u0001');
+    if (random.nextInt(4) == 0) {
+      char[] chars = message.toString().toCharArray();
+      chars[random.nextInt(chars.length)] = (char) random.nextInt(130);
+      return new String(chars);
+    }
+    return message.toString();
+  }
+
+  private static String randomString(Random random, boolean ascii) {
+    StringBuilder value = new StringBuilder();
+    int length = random.nextInt(8);
+    for (int i = 0; i < length; i++) {
+      int kind = random.nextInt(6);
+      if (ascii || kind < 3)
+        value.append((char) (0x21 + random.nextInt(0x5E)));
+      else if (kind == 3)
+        value.append((char) (0x80 + random.nextInt(0x780)));
+      else if (kind == 4)
+        value.append((char) (0x800 + random.nextInt(0xF000)));
+      else
+        value.appendCodePoint(0x10000 + random.nextInt(0xFFFFF));
+    }
+    return value.toString();
+  }
+
+  /**
+   * The regular expression based parser and encoder that the hand-written
+   * parser replaced, kept as the reference for its grammar
+   */
+  private static final class RegexParser {
+    private static final String SEPARATOR = "\u0001";
+    private static final String SASLNAME = "(?:[\\x01-\\x7F&&[^=,]]|=2C|=3D)+";
+    private static final String KEY = "[A-Za-z]+";
+    private static final String VALUE = "[\\x21-\\x7E \t\r\n]+";
+    private static final String KVPAIRS = String.format("(%s=%s%s)*", KEY, VALUE, SEPARATOR);
+    private static final Pattern AUTH_PATTERN = Pattern.compile("(?<scheme>[\\w]+)[ ]+(?<token>[-_\\.a-zA-Z0-9]+)");
+    private static final Pattern CLIENT_INITIAL_RESPONSE_PATTERN = Pattern.compile(
+        String.format("n,(a=(?<authzid>%s))?,%s(?<kvpairs>%s)%s", SASLNAME, SEPARATOR, KVPAIRS, SEPARATOR));
+    private static final Pattern EXTENSION_KEY_PATTERN = Pattern.compile(KEY);
+    private static final Pattern EXTENSION_VALUE_PATTERN = Pattern.compile(VALUE);
+
+    static String parse(byte[] response) {
+      Matcher matcher = CLIENT_INITIAL_RESPONSE_PATTERN.matcher(new String(response, StandardCharsets.UTF_8));
+      if (!matcher.matches())
+        return FAIL;
+      String authzid = matcher.group("authzid");
+      Map<String, String> properties = Utils.parseMap(matcher.group("kvpairs"), "=", SEPARATOR);
+      String auth = properties.remove(OAuthBearerClientInitialResponse.AUTH_KEY);
+      if (auth == null)
+        return FAIL;
+      for (Map.Entry<String, String> entry : properties.entrySet()) {
+        if (!EXTENSION_KEY_PATTERN.matcher(entry.getKey()).matches()
+            || !EXTENSION_VALUE_PATTERN.matcher(entry.getValue()).matches())
+          return FAIL;
+      }
+      Matcher authMatcher = AUTH_PATTERN.matcher(auth);
+      if (!authMatcher.matches() || !"bearer".equalsIgnoreCase(authMatcher.group("scheme")))
+        return FAIL;
+      return describe(authzid == null ? "" : authzid, authMatcher.group("token"), properties);
+    }
+
+    static byte[] encode(String tokenValue, String authorizationId, Map<String, String> extensions) {
+      String authzid = authorizationId.isEmpty() ? "" : "a=" + authorizationId;
+      String extensionsMessage = Utils.mkString(extensions, "", "", "=", SEPARATOR);
+      if (extensionsMessage.length() > 0)
+        extensionsMessage = SEPARATOR + extensionsMessage;
+      return String.format("n,%s,%sauth=Bearer %s%s%s%s", authzid, SEPARATOR, tokenValue, extensionsMessage,
+          SEPARATOR, SEPARATOR).getBytes(StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package org.cloudera.sasltestwork.oauthbearer.internals;
+
+import org.cloudera.sasltestwork.SaslAuthenticationException;
+import org.cloudera.sasltestwork.SaslExtensions;
+import org.cloudera.sasltestwork.oauthbearer.IllegalSaslStateException;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerAsyncValidatorCallbackHandler;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerToken;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerTokenCallback;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerValidatorCallback;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.sasl.SaslException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * The ByteBuffer and asynchronous entry points of the SASL server and client
+ * must behave exactly like their byte[] counterparts
+ */
+public class OAuthBearerSaslServerTest {
+  private static final String GOOD_TOKEN = "good.token.value";
+  private static final String BAD_TOKEN = "bad.token.value";
+  private static final String PRINCIPAL = "alice";
+  private static final byte[] CONTROL_A = {OAuthBearerSaslClient.BYTE_CONTROL_A};
+
+  @Test
+  public void testBuffersMatchByteArrays() throws Exception {
+    byte[][] responses = {response(GOOD_TOKEN, ""), response(BAD_TOKEN, ""), response(GOOD_TOKEN, "bob"),
+        "n,,\u0001auth=Basic x\u0001\u0001".getBytes(StandardCharsets.UTF_8)};
+    for (byte[] response : responses) {
+      String expected = outcome(server(), server -> server.evaluateResponse(response));
+      assertEquals(expected, outcome(server(), server -> evaluate(server, ByteBuffer.wrap(response), 256)));
+      assertEquals(expected, outcome(server(), server -> evaluate(server, direct(response), 256)));
+    }
+  }
+
+  @Test
+  public void testErrorChallengeBufferTooSmall() throws Exception {
+    OAuthBearerSaslServer server = server();
+    ByteBuffer response = direct(response(BAD_TOKEN, ""));
+    int position = response.position();
+    try {
+      server.evaluateResponse(response, ByteBuffer.allocateDirect(4));
+      fail("Expected BufferOverflowException");
+    } catch (BufferOverflowException e) {
+      // expected
+    }
+    assertEquals(position, response.position());
+    assertFalse(server.isComplete());
+    // the exchange has not moved on, so the error challenge has not been sent and ^A is not expected yet
+    assertEquals("fail:SaslException", outcome(server, s -> s.evaluateResponse(CONTROL_A)));
+
+    ByteBuffer challenge = ByteBuffer.allocateDirect(256);
+    int written = server.evaluateResponse(response, challenge);
+    challenge.flip();
+    byte[] reply = new byte[written];
+    challenge.get(reply);
+    assertEquals("{\"status\":\"invalid_token\"}", new String(reply, StandardCharsets.UTF_8));
+    assertFalse(response.hasRemaining());
+    try {
+      server.evaluateResponse(CONTROL_A);
+      fail("Expected SaslAuthenticationException");
+    } catch (SaslAuthenticationException e) {
+      assertEquals("{\"status\":\"invalid_token\"}", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testAsyncMatchesSync() throws Exception {
+    for (byte[] response : new byte[][] {response(GOOD_TOKEN, ""), response(BAD_TOKEN, "")}) {
+      OAuthBearerSaslServer server = new OAuthBearerSaslServer(new AsyncHandler(CompletableFuture::completedFuture));
+      assertArrayEquals(server().evaluateResponse(response), server.evaluateResponseAsync(response).get());
+    }
+  }
+
+  @Test
+  public void testAsyncClearsPendingOnEveryCompletion() throws Exception {
+    CompletableFuture<OAuthBearerValidatorCallback> outstanding = new CompletableFuture<>();
+    OAuthBearerSaslServer server = new OAuthBearerSaslServer(new AsyncHandler(callback -> outstanding));
+    CompletableFuture<byte[]> reply = server.evaluateResponseAsync(response(GOOD_TOKEN, ""));
+    try {
+      server.evaluateResponseAsync(response(GOOD_TOKEN, ""));
+      fail("Expected IllegalSaslStateException");
+    } catch (IllegalSaslStateException e) {
+      // expected
+    }
+    outstanding.completeExceptionally(new RejectedExecutionException("saturated"));
+    assertFailure(reply, RejectedExecutionException.class);
+    assertNotPending(server);
+
+    // a mismatched authorization ID fails while completing the exchange on the validating thread
+    server = new OAuthBearerSaslServer(new AsyncHandler(CompletableFuture::completedFuture));
+    assertFailure(server.evaluateResponseAsync(response(GOOD_TOKEN, "bob")), SaslAuthenticationException.class);
+    assertNotPending(server);
+
+    server = new OAuthBearerSaslServer(new AsyncHandler(callback -> {
+      throw new IllegalStateException("Callback handler is closed");
+    }));
+    // the second attempt fails the same way rather than as a response still being evaluated
+    for (int i = 0; i < 2; i++) {
+      try {
+        server.evaluateResponseAsync(response(GOOD_TOKEN, ""));
+        fail("Expected IllegalStateException");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testClientBuffersMatchByteArrays() throws Exception {
+    OAuthBearerSaslClient client = new OAuthBearerSaslClient(new ClientHandler());
+    byte[] expected = client.evaluateChallenge(new byte[0]);
+    assertArrayEquals(response(GOOD_TOKEN, ""), expected);
+
+    client = new OAuthBearerSaslClient(new ClientHandler());
+    ByteBuffer response = ByteBuffer.allocateDirect(256);
+    assertEquals(expected.length, client.evaluateChallenge(ByteBuffer.allocateDirect(0), response));
+    response.flip();
+    byte[] actual = new byte[response.remaining()];
+    response.get(actual);
+    assertArrayEquals(expected, actual);
+
+    ByteBuffer error = direct("{\"status\":\"invalid_token\"}".getBytes(StandardCharsets.UTF_8));
+    response.clear();
+    assertEquals(1, client.evaluateChallenge(error, response));
+    assertFalse(error.hasRemaining());
+    assertEquals(OAuthBearerSaslClient.BYTE_CONTROL_A, response.get(0));
+
+    client = new OAuthBearerSaslClient(new ClientHandler());
+    try {
+      client.evaluateChallenge(ByteBuffer.allocateDirect(0), ByteBuffer.allocateDirect(expected.length - 1));
+      fail("Expected SaslException");
+    } catch (SaslException e) {
+      // expected
+    }
+    assertFalse(client.isComplete());
+  }
+
+  private static OAuthBearerSaslServer server() {
+    return new OAuthBearerSaslServer(new SyncHandler());
+  }
+
+  private static byte[] response(String tokenValue, String authorizationId) throws SaslException {
+    return new OAuthBearerClientInitialResponse(tokenValue, authorizationId, SaslExtensions.NO_SASL_EXTENSIONS)
+        .toBytes();
+  }
+
+  private static ByteBuffer direct(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 3);
+    // start away from zero so that positions are honoured
+    buffer.position(3);
+    buffer.put(bytes);
+    buffer.position(3);
+    return buffer;
+  }
+
+  private static byte[] evaluate(OAuthBearerSaslServer server, ByteBuffer response, int challengeSize)
+      throws SaslException {
+    ByteBuffer challenge = ByteBuffer.allocate(challengeSize);
+    int written = server.evaluateResponse(response, challenge);
+    assertFalse(response.hasRemaining());
+    assertEquals(written, challenge.position());
+    return Arrays.copyOf(challenge.array(), written);
+  }
+
+  private static String outcome(OAuthBearerSaslServer server, Evaluation evaluation) {
+    try {
+      byte[] reply = evaluation.evaluate(server);
+      return new String(reply, StandardCharsets.UTF_8) + "|" + server.isComplete()
+          + (server.isComplete() ? "|" + server.getAuthorizationID() : "");
+    } catch (SaslException | RuntimeException e) {
+      return "fail:" + e.getClass().getSimpleName();
+    }
+  }
+
+  private static void assertFailure(CompletableFuture<byte[]> reply, Class<? extends Throwable> cause)
+      throws InterruptedException {
+    try {
+      reply.get();
+      fail("Expected " + cause.getSimpleName());
+    } catch (ExecutionException e) {
+      assertEquals(cause, e.getCause().getClass());
+    }
+  }
+
+  private static void assertNotPending(OAuthBearerSaslServer server) throws Exception {
+    // throws IllegalSaslStateException if the previous response were still marked as being evaluated
+    server.evaluateResponseAsync(response(BAD_TOKEN, "")).handle((reply, error) -> null).get();
+  }
+
+  private interface Evaluation {
+    byte[] evaluate(OAuthBearerSaslServer server) throws SaslException;
+  }
+
+  /**
+   * Accepts {@link #GOOD_TOKEN} only, and does not validate extensions
+   */
+  private static class SyncHandler implements CallbackHandler {
+    @Override
+    public void handle(Callback[] callbacks) throws UnsupportedCallbackException {
+      for (Callback callback : callbacks) {
+        if (!(callback instanceof OAuthBearerValidatorCallback))
+          throw new UnsupportedCallbackException(callback);
+        validate((OAuthBearerValidatorCallback) callback);
+      }
+    }
+
+    static OAuthBearerValidatorCallback validate(OAuthBearerValidatorCallback callback) {
+      if (GOOD_TOKEN.equals(callback.tokenValue()))
+        callback.token(token());
+      else
+        callback.error("invalid_token", null, null);
+      return callback;
+    }
+  }
+
+  private static final class AsyncHandler extends SyncHandler implements OAuthBearerAsyncValidatorCallbackHandler {
+    private final Function<OAuthBearerValidatorCallback, CompletableFuture<OAuthBearerValidatorCallback>> validation;
+
+    AsyncHandler(Function<OAuthBearerValidatorCallback, CompletableFuture<OAuthBearerValidatorCallback>> validation) {
+      this.validation = validation;
+    }
+
+    @Override
+    public CompletableFuture<OAuthBearerValidatorCallback> validateAsync(OAuthBearerValidatorCallback callback) {
+      return validation.apply(validate(callback));
+    }
+  }
+
+  private static final class ClientHandler implements CallbackHandler {
+    @Override
+    public void handle(Callback[] callbacks) throws UnsupportedCallbackException {
+      for (Callback callback : callbacks) {
+        if (!(callback instanceof OAuthBearerTokenCallback))
+          throw new UnsupportedCallbackException(callback);
+        ((OAuthBearerTokenCallback) callback).token(token());
+      }
+    }
+  }
+
+  private static OAuthBearerToken token() {
+    return new BasicOAuthBearerToken(GOOD_TOKEN, Collections.emptySet(), Long.MAX_VALUE, PRINCIPAL, null);
+  }
+}
@@ -0,0 +1,155 @@
+package org.cloudera.sasltestwork.oauthbearer.internals;
+
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerToken;
+import org.cloudera.sasltestwork.oauthbearer.OAuthBearerTokenSource;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Refresh scheduling against a token source that hands out scripted tokens.
+ * Refreshes are never scheduled less than a second apart, so these tests take
+ * a few seconds.
+ */
+public class OAuthBearerTokenManagerTest {
+  private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+  // leaves room for the scheduling delay of the refresher thread
+  private static final long SLACK_MS = 250;
+  // scripted in place of a token to make the token source fail
+  private static final OAuthBearerToken FAILURE =
+      new BasicOAuthBearerToken("failure", Collections.emptySet(), Long.MAX_VALUE, "alice", null);
+
+  @Test
+  public void testExpiredInitialTokenIsRejected() {
+    ScriptedTokenSource source = new ScriptedTokenSource(token("expired", -1000));
+    try {
+      new OAuthBearerTokenManager(source).close();
+      fail("Expected IOException");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTokenIsReplacedWhenDue() throws Exception {
+    OAuthBearerToken first = dueToken("first");
+    OAuthBearerToken second = token("second", TimeUnit.HOURS.toMillis(1));
+    ScriptedTokenSource source = new ScriptedTokenSource(first, second);
+    try (OAuthBearerTokenManager manager = new OAuthBearerTokenManager(source)) {
+      assertSame(first, manager.token());
+      source.awaitCall();
+      source.awaitCall();
+      await(() -> manager.token() == second);
+      assertEquals(1, manager.refreshes());
+      assertEquals(0, manager.refreshFailures());
+      // the new token is refreshed after most of its lifetime
+      assertTrue(manager.nextRefreshTimeMs() - System.currentTimeMillis() > TimeUnit.MINUTES.toMillis(45));
+    }
+  }
+
+  @Test
+  public void testSameTokenIsRetriedWithBackoff() throws Exception {
+    OAuthBearerToken token = dueToken("same");
+    ScriptedTokenSource source = new ScriptedTokenSource(token);
+    try (OAuthBearerTokenManager manager = new OAuthBearerTokenManager(source)) {
+      source.awaitCall();
+      long firstRetryMs = source.awaitCall();
+      long secondRetryMs = source.awaitCall();
+      long thirdRetryMs = source.awaitCall();
+      // each unchanged token doubles the delay before the next attempt
+      assertTrue(secondRetryMs - firstRetryMs >= 1000 - SLACK_MS);
+      assertTrue(thirdRetryMs - secondRetryMs >= 2000 - SLACK_MS);
+      assertSame(token, manager.token());
+      assertEquals(0, manager.refreshes());
+      assertEquals(0, manager.refreshFailures());
+    }
+  }
+
+  @Test
+  public void testExpiredAndFailedRefreshesKeepCurrentToken() throws Exception {
+    OAuthBearerToken first = dueToken("first");
+    OAuthBearerToken expired = token("expired", -1000);
+    OAuthBearerToken replacement = token("replacement", TimeUnit.HOURS.toMillis(1));
+    ScriptedTokenSource source = new ScriptedTokenSource(first, expired, null, replacement);
+    try (OAuthBearerTokenManager manager = new OAuthBearerTokenManager(source)) {
+      source.awaitCall();
+      source.awaitCall();
+      source.awaitCall();
+      await(() -> manager.refreshFailures() == 2);
+      // neither the expired token nor the failure replaced the current token
+      assertSame(first, manager.token());
+      source.awaitCall();
+      await(() -> manager.token() == replacement);
+      assertEquals(1, manager.refreshes());
+    }
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out waiting for the refresh to complete", System.currentTimeMillis() < deadlineMs);
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Return a token whose refresh is already due, but which has a minute left
+   */
+  private static OAuthBearerToken dueToken(String value) {
+    long nowMs = System.currentTimeMillis();
+    return new BasicOAuthBearerToken(value, Collections.emptySet(), nowMs + TimeUnit.MINUTES.toMillis(1), "alice",
+        nowMs - TimeUnit.HOURS.toMillis(1));
+  }
+
+  private static OAuthBearerToken token(String value, long lifetimeFromNowMs) {
+    long nowMs = System.currentTimeMillis();
+    return new BasicOAuthBearerToken(value, Collections.emptySet(), nowMs + lifetimeFromNowMs, "alice", nowMs);
+  }
+
+  /**
+   * Hands out the given tokens in turn, failing for a null one, and then the
+   * last one forever
+   */
+  private static final class ScriptedTokenSource implements OAuthBearerTokenSource {
+    private final Deque<OAuthBearerToken> tokens = new ArrayDeque<>();
+    private final BlockingQueue<Long> callTimesMs = new LinkedBlockingQueue<>();
+    private OAuthBearerToken last;
+
+    ScriptedTokenSource(OAuthBearerToken... tokens) {
+      for (OAuthBearerToken token : tokens)
+        this.tokens.add(token != null ? token : FAILURE);
+    }
+
+    @Override
+    public OAuthBearerToken retrieveToken() throws IOException {
+      callTimesMs.add(System.currentTimeMillis());
+      OAuthBearerToken token = tokens.isEmpty() ? last : tokens.poll();
+      last = token;
+      if (token == FAILURE)
+        throw new IOException("Token endpoint unavailable");
+      return token;
+    }
+
+    /**
+     * Wait for the next call to the token source, returning its time
+     */
+    long awaitCall() throws InterruptedException {
+      Long callTimeMs = callTimesMs.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      assertNotNull("Timed out waiting for a refresh", callTimeMs);
+      return callTimeMs;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.Ed25519Signer;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.interfaces.ECPrivateKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Signing keys are read from X.509 certificates generated by keytool, and must
+ * then verify the tokens signed with their private keys, and only with the
+ * algorithm of their key type
+ */
+public class CertificateUtilTest {
+  private static final String PASSWORD = "changeit";
+  private static final String ALIAS = "signing";
+  // an Ed25519 private key is encoded in PKCS#8 as a fixed prefix followed by the 32 byte seed
+  private static final int ED25519_SEED_LENGTH = 32;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRsaCertificate() throws Exception {
+    KeyStore keyStore = generate("-keyalg", "RSA", "-keysize", "2048");
+    JWK jwk = CertificateUtil.parseJWK(pem(keyStore), "rsa");
+    assertTrue(jwk instanceof RSAKey);
+    assertEquals(KeyUse.SIGNATURE, jwk.getKeyUse());
+    JWSSigner signer = new RSASSASigner(privateKey(keyStore));
+    assertAccepted(jwk, sign(JWSAlgorithm.RS256, "rsa", signer));
+    assertRejected(jwk, sign(JWSAlgorithm.RS256, "rsa", new RSASSASigner(new RSAKeyGenerator(2048).generate())));
+  }
+
+  @Test
+  public void testEcCertificates() throws Exception {
+    Object[][] curves = {{"secp256r1", Curve.P_256, JWSAlgorithm.ES256}, {"secp384r1", Curve.P_384, JWSAlgorithm.ES384},
+        {"secp521r1", Curve.P_521, JWSAlgorithm.ES512}};
+    for (Object[] curve : curves) {
+      KeyStore keyStore = generate("-keyalg", "EC", "-groupname", (String) curve[0]);
+      JWK jwk = CertificateUtil.parseJWK(pem(keyStore), "ec");
+      assertTrue(jwk instanceof ECKey);
+      assertEquals(curve[1], ((ECKey) jwk).getCurve());
+      JWSAlgorithm algorithm = (JWSAlgorithm) curve[2];
+      JWSSigner signer = new ECDSASigner((ECPrivateKey) privateKey(keyStore));
+      assertAccepted(jwk, sign(algorithm, "ec", signer));
+      // only the algorithm of the key's curve is accepted, and never an RSA one
+      for (JWSAlgorithm other : Arrays.asList(JWSAlgorithm.ES256, JWSAlgorithm.ES384, JWSAlgorithm.ES512)) {
+        if (!other.equals(algorithm))
+          assertRejected(jwk, sign(other, "ec",
+              new ECDSASigner(new ECKeyGenerator(Curve.forJWSAlgorithm(other).iterator().next()).generate())));
+      }
+      assertRejected(jwk, sign(JWSAlgorithm.RS256, "ec", new RSASSASigner(new RSAKeyGenerator(2048).generate())));
+    }
+  }
+
+  @Test
+  public void testEd25519Certificate() throws Exception {
+    // keytool only generates Ed25519 keys from Java 15 on; the key is still parsed by its encoding on Java 8
+    KeyStore keyStore = generate("-keyalg", "Ed25519");
+    Assume.assumeTrue("keytool cannot generate Ed25519 keys", keyStore != null);
+    JWK jwk = CertificateUtil.parseJWK(pem(keyStore), "ed");
+    assertTrue(jwk instanceof OctetKeyPair);
+    assertEquals(Curve.Ed25519, ((OctetKeyPair) jwk).getCurve());
+    byte[] encoded = privateKey(keyStore).getEncoded();
+    byte[] seed = Arrays.copyOfRange(encoded, encoded.length - ED25519_SEED_LENGTH, encoded.length);
+    OctetKeyPair privateJwk = new OctetKeyPair.Builder((OctetKeyPair) jwk).d(Base64URL.encode(seed)).build();
+    assertAccepted(jwk, sign(JWSAlgorithm.EdDSA, "ed", new Ed25519Signer(privateJwk)));
+    assertRejected(jwk, sign(JWSAlgorithm.RS256, "ed", new RSASSASigner(new RSAKeyGenerator(2048).generate())));
+  }
+
+  @Test
+  public void testRsaOnlyParserRejectsOtherKeys() throws Exception {
+    KeyStore keyStore = generate("-keyalg", "EC", "-groupname", "secp256r1");
+    try {
+      CertificateUtil.parseRSAPublicKey(pem(keyStore));
+      fail("Expected CertificateException");
+    } catch (CertificateException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Generate a self-signed key pair with keytool, returning its key store, or
+   * null if keytool does not support the key algorithm
+   */
+  private KeyStore generate(String... keyOptions) throws Exception {
+    File keyStoreFile = new File(folder.newFolder(), "keystore.p12");
+    String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+    String[] command = {keytool, "-genkeypair", "-alias", ALIAS, "-dname", "CN=test", "-validity", "1",
+        "-storetype", "PKCS12", "-keystore", keyStoreFile.getPath(), "-storepass", PASSWORD, "-keypass", PASSWORD};
+    String[] fullCommand = Arrays.copyOf(command, command.length + keyOptions.length);
+    System.arraycopy(keyOptions, 0, fullCommand, command.length, keyOptions.length);
+    Process process = new ProcessBuilder(fullCommand).redirectErrorStream(true).start();
+    process.getOutputStream().close();
+    assertTrue("keytool timed out", process.waitFor(60, TimeUnit.SECONDS));
+    if (process.exitValue() != 0)
+      return null;
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    try (InputStream in = new FileInputStream(keyStoreFile)) {
+      keyStore.load(in, PASSWORD.toCharArray());
+    }
+    return keyStore;
+  }
+
+  private static String pem(KeyStore keyStore) throws Exception {
+    Certificate certificate = keyStore.getCertificate(ALIAS);
+    return Base64.getMimeEncoder().encodeToString(certificate.getEncoded());
+  }
+
+  private static PrivateKey privateKey(KeyStore keyStore) throws Exception {
+    return (PrivateKey) keyStore.getKey(ALIAS, PASSWORD.toCharArray());
+  }
+
+  private static String sign(JWSAlgorithm algorithm, String keyId, JWSSigner signer) throws Exception {
+    SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(algorithm).keyID(keyId).build(),
+        new JWTClaimsSet.Builder().subject("alice").expirationTime(new Date(System.currentTimeMillis() + 600_000))
+            .build());
+    jwt.sign(signer);
+    return jwt.serialize();
+  }
+
+  private static void assertAccepted(JWK jwk, String tokenValue) throws Exception {
+    assertEquals("alice", new OAuthBearerSignedJwtVerifier(new JWKSet(jwk)).verify(tokenValue).getSubject());
+  }
+
+  private static void assertRejected(JWK jwk, String tokenValue) throws Exception {
+    try {
+      new OAuthBearerSignedJwtVerifier(new JWKSet(jwk)).verify(tokenValue);
+      fail("Expected the token to be rejected");
+    } catch (BadJOSEException e) {
+      // expected
+    }
+  }
+}
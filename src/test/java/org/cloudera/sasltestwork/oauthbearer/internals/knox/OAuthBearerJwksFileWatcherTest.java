@@ -0,0 +1,83 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reloads of the watched JWKS file, triggered directly rather than through the
+ * file system's change notifications; the watcher thread may reload the file
+ * too, so these only assert what holds either way
+ */
+public class OAuthBearerJwksFileWatcherTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testUnchangedKeySetKeepsVerifier() throws Exception {
+    Path jwksFile = folder.getRoot().toPath().resolve("jwks.json");
+    JWKSet jwkSet = newKeySet("first");
+    write(jwksFile, jwkSet);
+    try (OAuthBearerJwksFileWatcher watcher = new OAuthBearerJwksFileWatcher(jwksFile)) {
+      OAuthBearerSignedJwtVerifier initial = watcher.verifier();
+      // a rewrite with the same content, as config management does, or a second event for one save
+      write(jwksFile, jwkSet);
+      assertTrue(watcher.reload());
+      assertTrue(watcher.reload());
+      assertSame(initial, watcher.verifier());
+      assertEquals(1, watcher.version());
+    }
+  }
+
+  @Test
+  public void testChangedKeySetReplacesVerifier() throws Exception {
+    Path jwksFile = folder.getRoot().toPath().resolve("jwks.json");
+    write(jwksFile, newKeySet("first"));
+    try (OAuthBearerJwksFileWatcher watcher = new OAuthBearerJwksFileWatcher(jwksFile)) {
+      OAuthBearerSignedJwtVerifier initial = watcher.verifier();
+      write(jwksFile, newKeySet("second"));
+      assertTrue(watcher.reload());
+      assertNotSame(initial, watcher.verifier());
+      assertTrue(watcher.verifier().hasKey("second"));
+      assertEquals(2, watcher.version());
+    }
+  }
+
+  @Test
+  public void testUnparseableFileKeepsVerifier() throws Exception {
+    Path jwksFile = folder.getRoot().toPath().resolve("jwks.json");
+    write(jwksFile, newKeySet("first"));
+    try (OAuthBearerJwksFileWatcher watcher = new OAuthBearerJwksFileWatcher(jwksFile)) {
+      OAuthBearerSignedJwtVerifier initial = watcher.verifier();
+      Files.write(jwksFile, "{\"keys\":".getBytes(StandardCharsets.UTF_8));
+      assertFalse(watcher.reload());
+      assertSame(initial, watcher.verifier());
+      assertEquals(1, watcher.version());
+      // the watcher thread may also have tried the file
+      assertTrue(watcher.reloadFailures() >= 1);
+    }
+  }
+
+  private static JWKSet newKeySet(String keyId) throws JOSEException {
+    return new JWKSet(new ECKeyGenerator(Curve.P_256).keyID(keyId).generate().toPublicJWK());
+  }
+
+  private static void write(Path jwksFile, JWKSet jwkSet) throws IOException {
+    Files.write(jwksFile, jwkSet.toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
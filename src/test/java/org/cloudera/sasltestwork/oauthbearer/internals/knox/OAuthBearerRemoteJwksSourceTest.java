@@ -0,0 +1,127 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Key rotation and the unknown key ID refetch rate limit, against a JWKS
+ * endpoint served in process
+ */
+public class OAuthBearerRemoteJwksSourceTest {
+  private static final long NEVER_MS = TimeUnit.HOURS.toMillis(1);
+  private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+  private HttpServer server;
+  private URL jwksUrl;
+  private volatile JWKSet served;
+  private volatile CountDownLatch responseGate = new CountDownLatch(0);
+
+  @Before
+  public void setUp() throws Exception {
+    served = new JWKSet(newKey("first"));
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/jwks", exchange -> {
+      try {
+        responseGate.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      byte[] body = served.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    jwksUrl = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), "/jwks");
+  }
+
+  @After
+  public void tearDown() {
+    responseGate.countDown();
+    server.stop(0);
+  }
+
+  @Test
+  public void testRotatedKeyIsFetchedInTheBackground() throws Exception {
+    try (OAuthBearerRemoteJwksSource source = new OAuthBearerRemoteJwksSource(jwksUrl, NEVER_MS, 0)) {
+      OAuthBearerSignedJwtVerifier initial = source.verifier();
+      assertTrue(initial.hasKey("first"));
+      assertEquals(1, source.version());
+
+      served = new JWKSet(newKey("second"));
+      assertNull(source.verifierForUnknownKey("second"));
+      awaitKey(source, "second");
+      assertEquals(1, source.unknownKeyRefetches());
+      assertEquals(2, source.version());
+      assertFalse(source.verifier().hasKey("first"));
+      // once installed, the key is found without another refetch
+      assertSame(source.verifier(), source.verifierForUnknownKey("second"));
+      assertEquals(1, source.unknownKeyRefetches());
+    }
+  }
+
+  @Test
+  public void testUnknownKeyRefetchesAreRateLimited() throws Exception {
+    try (OAuthBearerRemoteJwksSource source = new OAuthBearerRemoteJwksSource(jwksUrl, NEVER_MS, NEVER_MS)) {
+      served = new JWKSet(newKey("second"));
+      assertNull(source.verifierForUnknownKey("second"));
+      awaitKey(source, "second");
+      long fetches = source.fetches();
+      for (int i = 0; i < 100; i++)
+        assertNull(source.verifierForUnknownKey("forged-" + i));
+      assertEquals(1, source.unknownKeyRefetches());
+      assertEquals(100, source.rateLimitedRefetches());
+      assertEquals(fetches, source.fetches());
+    }
+  }
+
+  @Test
+  public void testUnknownKeyDoesNotWaitForTheEndpoint() throws Exception {
+    try (OAuthBearerRemoteJwksSource source = new OAuthBearerRemoteJwksSource(jwksUrl, NEVER_MS, 0)) {
+      served = new JWKSet(newKey("second"));
+      responseGate = new CountDownLatch(1);
+      long startMs = System.currentTimeMillis();
+      assertNull(source.verifierForUnknownKey("second"));
+      assertNull(source.verifierForUnknownKey("second"));
+      assertTrue(System.currentTimeMillis() - startMs < TIMEOUT_MS / 2);
+      assertFalse(source.verifier().hasKey("second"));
+      responseGate.countDown();
+      awaitKey(source, "second");
+    }
+  }
+
+  private static JWK newKey(String keyId) throws JOSEException {
+    return new ECKeyGenerator(Curve.P_256).keyID(keyId).generate().toPublicJWK();
+  }
+
+  private static void awaitKey(OAuthBearerRemoteJwksSource source, String keyId) throws InterruptedException {
+    long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (!source.verifier().hasKey(keyId)) {
+      assertTrue("Timed out waiting for key " + keyId, System.currentTimeMillis() < deadlineMs);
+      Thread.sleep(10);
+    }
+  }
+}
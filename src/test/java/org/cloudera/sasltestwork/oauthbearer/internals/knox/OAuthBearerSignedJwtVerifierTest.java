@@ -0,0 +1,141 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.Ed25519Signer;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.OctetKeyPairGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Every key type is only used with the algorithms it supports: tokens signed
+ * by a key of the set are accepted, while tokens whose header names another
+ * algorithm than their key's are rejected, however they were signed
+ */
+public class OAuthBearerSignedJwtVerifierTest {
+  private static ECKey es256Key;
+  private static ECKey es384Key;
+  private static OctetKeyPair ed25519Key;
+  private static RSAKey rs256Key;
+  private static RSAKey outsideKey;
+  private static OAuthBearerSignedJwtVerifier verifier;
+
+  @BeforeClass
+  public static void setUpClass() throws JOSEException {
+    es256Key = new ECKeyGenerator(Curve.P_256).keyID("es256").generate();
+    es384Key = new ECKeyGenerator(Curve.P_384).keyID("es384").generate();
+    ed25519Key = new OctetKeyPairGenerator(Curve.Ed25519).keyID("ed25519").generate();
+    // restricted by its alg to RS256, although the key type also supports RS384, RS512 and PS*
+    rs256Key = new RSAKeyGenerator(2048).keyID("rs256").algorithm(JWSAlgorithm.RS256).generate();
+    // not in the key set, but named by the kid of keys that are
+    outsideKey = new RSAKeyGenerator(2048).generate();
+    verifier = new OAuthBearerSignedJwtVerifier(new JWKSet(Arrays.asList(es256Key.toPublicJWK(),
+        es384Key.toPublicJWK(), ed25519Key.toPublicJWK(), rs256Key.toPublicJWK())));
+  }
+
+  @Test
+  public void testEachKeyVerifiesItsAlgorithm() throws Exception {
+    assertAccepted(sign(JWSAlgorithm.ES256, "es256", new ECDSASigner(es256Key)));
+    assertAccepted(sign(JWSAlgorithm.ES384, "es384", new ECDSASigner(es384Key)));
+    assertAccepted(sign(JWSAlgorithm.EdDSA, "ed25519", new Ed25519Signer(ed25519Key)));
+    assertAccepted(sign(JWSAlgorithm.RS256, "rs256", new RSASSASigner(rs256Key)));
+  }
+
+  @Test
+  public void testTokensWithoutKeyIdAreMatchedByAlgorithm() throws Exception {
+    assertAccepted(sign(JWSAlgorithm.ES384, null, new ECDSASigner(es384Key)));
+    assertAccepted(sign(JWSAlgorithm.EdDSA, null, new Ed25519Signer(ed25519Key)));
+    assertRejected(sign(JWSAlgorithm.ES256, null, new ECDSASigner(new ECKeyGenerator(Curve.P_256).generate())));
+  }
+
+  @Test
+  public void testOtherAlgorithmsAreRejected() throws Exception {
+    // validly signed for the header's algorithm, but with a key that is not the one the kid names
+    assertRejected(sign(JWSAlgorithm.RS256, "es256", new RSASSASigner(outsideKey)));
+    assertRejected(sign(JWSAlgorithm.RS256, "ed25519", new RSASSASigner(outsideKey)));
+    assertRejected(sign(JWSAlgorithm.ES384, "es256", new ECDSASigner(es384Key)));
+    assertRejected(sign(JWSAlgorithm.ES256, "es384", new ECDSASigner(es256Key)));
+    assertRejected(sign(JWSAlgorithm.EdDSA, "es256", new Ed25519Signer(ed25519Key)));
+    assertRejected(sign(JWSAlgorithm.ES256, "ed25519", new ECDSASigner(es256Key)));
+    // the right key, but an algorithm its alg excludes
+    assertRejected(sign(JWSAlgorithm.RS384, "rs256", new RSASSASigner(rs256Key)));
+    assertRejected(sign(JWSAlgorithm.PS256, "rs256", new RSASSASigner(rs256Key)));
+  }
+
+  @Test
+  public void testWrongKeyOfRightAlgorithmIsRejected() throws Exception {
+    assertRejected(sign(JWSAlgorithm.ES256, "es256", new ECDSASigner(new ECKeyGenerator(Curve.P_256).generate())));
+    assertRejected(sign(JWSAlgorithm.EdDSA, "ed25519",
+        new Ed25519Signer(new OctetKeyPairGenerator(Curve.Ed25519).generate())));
+  }
+
+  @Test
+  public void testFailureReasons() throws Exception {
+    assertReason("unknown_key", sign(JWSAlgorithm.ES256, "other", new ECDSASigner(es256Key)));
+    assertReason("no_matching_key", sign(JWSAlgorithm.RS384, "rs256", new RSASSASigner(rs256Key)));
+    assertReason("invalid_signature",
+        sign(JWSAlgorithm.ES256, "es256", new ECDSASigner(new ECKeyGenerator(Curve.P_256).generate())));
+    long nowMs = System.currentTimeMillis();
+    assertReason("expired", sign(JWSAlgorithm.ES256, "es256", new ECDSASigner(es256Key),
+        new JWTClaimsSet.Builder().subject("alice").expirationTime(new Date(nowMs - 600_000)).build()));
+    assertReason("not_yet_valid", sign(JWSAlgorithm.ES256, "es256", new ECDSASigner(es256Key),
+        new JWTClaimsSet.Builder().subject("alice").expirationTime(new Date(nowMs + 1_200_000))
+            .notBeforeTime(new Date(nowMs + 600_000)).build()));
+    assertReason("malformed", "not.a.jwt");
+  }
+
+  private static String sign(JWSAlgorithm algorithm, String keyId, JWSSigner signer) throws JOSEException {
+    long nowMs = System.currentTimeMillis();
+    return sign(algorithm, keyId, signer,
+        new JWTClaimsSet.Builder().subject("alice").expirationTime(new Date(nowMs + 600_000)).build());
+  }
+
+  private static String sign(JWSAlgorithm algorithm, String keyId, JWSSigner signer, JWTClaimsSet claims)
+      throws JOSEException {
+    SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(algorithm).keyID(keyId).build(), claims);
+    jwt.sign(signer);
+    return jwt.serialize();
+  }
+
+  private static void assertReason(String reason, String tokenValue) {
+    try {
+      verifier.verify(tokenValue);
+      fail("Expected the token to be rejected");
+    } catch (Exception e) {
+      assertEquals(reason, OAuthBearerSignedJwtVerifier.failureReason(e));
+    }
+  }
+
+  private static void assertAccepted(String tokenValue) throws Exception {
+    assertEquals("alice", verifier.verify(tokenValue).getSubject());
+  }
+
+  private static void assertRejected(String tokenValue) throws Exception {
+    try {
+      verifier.verify(tokenValue);
+      fail("Expected the token to be rejected");
+    } catch (BadJOSEException e) {
+      // expected
+    }
+  }
+}
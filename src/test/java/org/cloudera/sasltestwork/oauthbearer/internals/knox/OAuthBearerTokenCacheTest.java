@@ -0,0 +1,146 @@
+package org.cloudera.sasltestwork.oauthbearer.internals.knox;
+
+import org.cloudera.sasltestwork.oauthbearer.internals.knox.OAuthBearerTokenCache.TokenDigest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The cache decides whether a token skips signature verification, so a lookup
+ * must never return an outcome that is expired, was reached with another
+ * verifier, or was cleared
+ */
+public class OAuthBearerTokenCacheTest {
+  private static final long NOW_MS = 1_000_000L;
+  private static final long LATER_MS = NOW_MS + 60_000L;
+
+  @Test
+  public void testExpiredEntriesAreNotReturned() {
+    OAuthBearerTokenCache<String> cache = new OAuthBearerTokenCache<>(10);
+    cache.put("token", "value", LATER_MS, NOW_MS);
+    assertEquals("value", cache.get("token", LATER_MS - 1));
+    assertNull(cache.get("token", LATER_MS));
+    // nothing is cached past its expiration time
+    cache.put("other", "value", NOW_MS, NOW_MS);
+    assertNull(cache.get("other", NOW_MS - 1));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testOtherVersionMisses() {
+    OAuthBearerTokenCache<String> cache = new OAuthBearerTokenCache<>(10);
+    Object verifier = new Object();
+    TokenDigest digest = TokenDigest.of("token");
+    cache.put(digest, "value", verifier, LATER_MS, NOW_MS);
+    assertEquals("value", cache.get(digest, verifier, NOW_MS));
+    assertNull(cache.get(digest, new Object(), NOW_MS));
+    assertNull(cache.get(digest, null, NOW_MS));
+    assertNull(cache.get("token", NOW_MS));
+    // an untagged entry is only returned to untagged lookups
+    cache.put("untagged", "value", LATER_MS, NOW_MS);
+    assertNull(cache.get(TokenDigest.of("untagged"), verifier, NOW_MS));
+    assertEquals(1, cache.hits());
+    assertEquals(4, cache.misses());
+  }
+
+  @Test
+  public void testClear() {
+    OAuthBearerTokenCache<String> cache = new OAuthBearerTokenCache<>(10);
+    for (int i = 0; i < 5; i++)
+      cache.put("token" + i, "value" + i, LATER_MS, NOW_MS);
+    cache.clear();
+    assertEquals(0, cache.size());
+    for (int i = 0; i < 5; i++)
+      assertNull(cache.get("token" + i, NOW_MS));
+    // the cache is usable again, up to its full size
+    for (int i = 0; i < 10; i++)
+      cache.put("again" + i, "value" + i, LATER_MS, NOW_MS);
+    assertEquals(10, cache.size());
+    for (int i = 0; i < 10; i++)
+      assertEquals("value" + i, cache.get("again" + i, NOW_MS));
+  }
+
+  @Test
+  public void testReferencedEntriesSurviveEviction() {
+    OAuthBearerTokenCache<String> cache = new OAuthBearerTokenCache<>(3);
+    cache.put("a", "a", LATER_MS, NOW_MS);
+    cache.put("b", "b", LATER_MS, NOW_MS);
+    cache.put("c", "c", LATER_MS, NOW_MS);
+    cache.get("a", NOW_MS);
+    cache.put("d", "d", LATER_MS, NOW_MS);
+    // a was hit since it was cached, so the oldest entry after it goes instead
+    assertEquals("a", cache.get("a", NOW_MS));
+    assertNull(cache.get("b", NOW_MS));
+    assertEquals(3, cache.size());
+  }
+
+  @Test
+  public void testExpiredEntriesAreEvictedFirst() {
+    OAuthBearerTokenCache<String> cache = new OAuthBearerTokenCache<>(2);
+    cache.put("short", "short", NOW_MS + 1, NOW_MS);
+    cache.put("long", "long", LATER_MS, NOW_MS);
+    cache.get("short", NOW_MS);
+    cache.put("new", "new", LATER_MS, NOW_MS + 1);
+    assertEquals("long", cache.get("long", NOW_MS + 1));
+    assertEquals("new", cache.get("new", NOW_MS + 1));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testConcurrentPutsRespectMaxSize() throws Exception {
+    int maxSize = 64;
+    int threads = 8;
+    int putsPerThread = 5_000;
+    OAuthBearerTokenCache<String> cache = new OAuthBearerTokenCache<>(maxSize);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        int thread = t;
+        futures.add(executor.submit(() -> {
+          start.await();
+          for (int i = 0; i < putsPerThread; i++) {
+            // overlapping keys across threads, some of them hit so that second chances are given too
+            String token = "token" + ((thread * putsPerThread + i) % (maxSize * 20));
+            cache.put(token, token, LATER_MS, NOW_MS);
+            cache.get("token" + (i % 8), NOW_MS);
+          }
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<?> future : futures)
+        future.get();
+    } finally {
+      executor.shutdownNow();
+    }
+    assertTrue("size " + cache.size(), cache.size() <= maxSize);
+    int live = 0;
+    for (int i = 0; i < maxSize * 20; i++) {
+      String value = cache.get("token" + i, NOW_MS);
+      if (value != null) {
+        assertEquals("token" + i, value);
+        live++;
+      }
+    }
+    assertEquals(cache.size(), live);
+  }
+
+  @Test
+  public void testDigestEquality() {
+    assertEquals(TokenDigest.of("token"), TokenDigest.of("token"));
+    assertEquals(TokenDigest.of("token").hashCode(), TokenDigest.of("token").hashCode());
+    assertNotEquals(TokenDigest.of("token"), TokenDigest.of("token2"));
+  }
+}